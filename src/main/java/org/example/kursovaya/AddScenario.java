@@ -1,17 +1,25 @@
 package org.example.kursovaya;
 
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.event.EventHandler;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.VBox;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import javafx.stage.WindowEvent;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
 /**
  * Класс, представляющий окно добавления сценариев.
  */
@@ -19,6 +27,11 @@ public class AddScenario extends BaseWindow {
     private static final Logger logger = LogManager.getLogger(AddScenario.class); // Логгер для записи действий
     private Stage stage;
     private String currentSceneKey = "start"; // Ключ текущей сцены
+    private ScenarioGraphWindow graphWindow; // Открытое окно карты сценария
+    // Сцены читаются из общего scenarioData, который обновляется на месте при перезагрузке
+    private final ScenePrefetcher prefetcher = new ScenePrefetcher(() -> scenarioData, scenarioName);
+    private long sessionId; // Идентификатор текущего прохождения для телеметрии
+    private EventHandler<WindowEvent> closeHandler; // Обработчик закрытия окна, пока сценарий открыт
 
     /**
      * Конструктор для окна добавления сценариев.
@@ -59,49 +72,147 @@ public class AddScenario extends BaseWindow {
         exitToStartButton.setOnAction(e -> {
             logger.info("Пользователь нажал кнопку 'Выход на начало'");
             currentSceneKey = "start";  // Сброс на начальную сцену
+            startSession(); // Возврат к началу считается новым прохождением
             updateScene(sceneText, choicesBox);  // Обновить сцену
         });
 
-        // Обновить интерфейс с текущими данными сцены
-        updateScene(sceneText, choicesBox);
+        // Кнопка для открытия карты сценария
+        Button graphButton = new Button("Карта сценария");
+        graphButton.setOnAction(e -> {
+            logger.info("Пользователь нажал кнопку 'Карта сценария'");
+            if (graphWindow != null && graphWindow.isShowing()) {
+                graphWindow.toFront(); // Второе окно со своей раскладкой не открываем
+            } else if (scenarioData != null) {
+                graphWindow = new ScenarioGraphWindow(stage, scenarioName);
+                graphWindow.show(scenarioData);
+            }
+        });
 
-        root.getChildren().addAll(sceneText, choicesBox, addBranchButton, exitToStartButton);
+        // Кнопки правки структуры сценария
+        Button renameButton = new Button("Переименовать сцену");
+        renameButton.setOnAction(e -> {
+            logger.info("Пользователь нажал кнопку 'Переименовать сцену'");
+            renameCurrentScene(sceneText, choicesBox);
+        });
+        Button deleteButton = new Button("Удалить сцену");
+        deleteButton.setOnAction(e -> {
+            logger.info("Пользователь нажал кнопку 'Удалить сцену'");
+            deleteCurrentScene(sceneText, choicesBox);
+        });
+        Button mergeButton = new Button("Объединить сцены");
+        mergeButton.setOnAction(e -> {
+            logger.info("Пользователь нажал кнопку 'Объединить сцены'");
+            mergeIntoCurrentScene(sceneText, choicesBox);
+        });
+
+        // Показать сцену из уже загруженных данных, не перечитывая файл
+        startSession();
+        showScene(sceneText, choicesBox);
 
-        Scene scene = new Scene(root, 400, 400);
+        root.getChildren().addAll(sceneText, choicesBox, addBranchButton, renameButton, deleteButton, mergeButton,
+                exitToStartButton, graphButton);
+
+        Scene scene = new Scene(root, 400, 520);
         stage.setScene(scene);
+
+        // Окно сценария закрывается, когда его сцену заменяют на другую или закрывают само окно
+        ChangeListener<Scene> sceneListener = new ChangeListener<>() {
+            @Override
+            public void changed(ObservableValue<? extends Scene> obs, Scene oldScene, Scene newScene) {
+                if (oldScene == scene) {
+                    stage.sceneProperty().removeListener(this);
+                    closeScenario();
+                }
+            }
+        };
+        stage.sceneProperty().addListener(sceneListener);
+        EventHandler<WindowEvent> hiddenHandler = new EventHandler<>() {
+            @Override
+            public void handle(WindowEvent e) {
+                stage.removeEventHandler(WindowEvent.WINDOW_HIDDEN, this);
+                stage.sceneProperty().removeListener(sceneListener);
+                closeScenario();
+            }
+        };
+        stage.addEventHandler(WindowEvent.WINDOW_HIDDEN, hiddenHandler);
+        closeHandler = hiddenHandler;
+    }
+
+    /**
+     * Освобождает сценарий и записывает статистику кэшей при закрытии окна сценария.
+     */
+    private void closeScenario() {
+        if (closeHandler == null) {
+            return; // Окно уже закрыто
+        }
+        stage.removeEventHandler(WindowEvent.WINDOW_HIDDEN, closeHandler);
+        closeHandler = null;
+        prefetcher.logStats();
+        close();
+    }
+
+    /**
+     * Начинает новое прохождение и записывает его начало в телеметрию,
+     * чтобы учитывались и игроки, не сделавшие ни одного выбора.
+     */
+    private void startSession() {
+        sessionId = TelemetryRecorder.newSessionId();
+        TelemetryRecorder.getInstance().recordStart(sessionId, scenarioName, currentSceneKey);
     }
 
     /**
-     * Обновляет сцену, загружая данные сценария и обновляя элементы интерфейса.
+     * Перечитывает сценарий с диска, чтобы подхватить изменения, сделанные вне приложения,
+     * и показывает текущую сцену. Вызывается только при явном возврате к началу.
      *
      * @param sceneText Текстовое поле для отображения текста сцены
      * @param choicesBox VBox для отображения выборов для сцены
      */
     private void updateScene(TextArea sceneText, VBox choicesBox) {
         reloadScenario(); // Перезагрузка сценария
+        prefetcher.invalidate(); // Загруженные заранее сцены могли устареть
+        if (graphWindow != null && graphWindow.isShowing()) {
+            graphWindow.relayout(scenarioData);
+        }
+        showScene(sceneText, choicesBox);
+    }
 
+    /**
+     * Отображает текущую сцену, беря её из предзагрузки, и запускает загрузку следующих сцен.
+     *
+     * @param sceneText Текстовое поле для отображения текста сцены
+     * @param choicesBox VBox для отображения выборов для сцены
+     */
+    private void showScene(TextArea sceneText, VBox choicesBox) {
         choicesBox.getChildren().clear();
 
-        if (scenarioData != null && scenarioData.has(currentSceneKey)) {
-            JSONObject scene = scenarioData.getJSONObject(currentSceneKey);
-            sceneText.setText(scene.optString("text", "Текст сцены отсутствует."));
-
-            JSONArray choices = scene.optJSONArray("choices");
-            if (choices != null) {
-                choices.forEach(choice -> {
-                    JSONObject choiceObj = (JSONObject) choice;
-                    Button choiceButton = new Button(choiceObj.optString("option", "Без названия"));
-                    choiceButton.setOnAction(e -> {
-                        logger.info("Пользователь выбрал вариант: " + choiceObj.optString("option"));
-                        currentSceneKey = choiceObj.optString("next", "end");
-                        updateScene(sceneText, choicesBox);  // Обновить сцену после выбора
-                    });
-                    choicesBox.getChildren().add(choiceButton);
+        ScenePrefetcher.PreparedScene scene = scenarioData != null ? prefetcher.get(currentSceneKey) : null;
+        if (scene != null) {
+            sceneText.setText(scene.getText());
+
+            String fromKey = currentSceneKey;
+            for (int i = 0; i < scene.getOptions().size(); i++) {
+                String option = scene.getOptions().get(i);
+                String nextKey = scene.getNextKeys().get(i);
+                int choiceIndex = i;
+                Button choiceButton = new Button(option);
+                choiceButton.setOnAction(e -> {
+                    TelemetryRecorder.getInstance().record(sessionId, scenarioName, fromKey, nextKey, choiceIndex);
+                    logger.debug("Пользователь выбрал вариант: {}", option);
+                    prefetcher.recordChoice(fromKey, nextKey);
+                    currentSceneKey = nextKey;
+                    showScene(sceneText, choicesBox);  // Обновить сцену после выбора
                 });
+                choicesBox.getChildren().add(choiceButton);
             }
+            if (scene.getOptions().isEmpty()) {
+                TelemetryRecorder.getInstance().recordEnding(sessionId, scenarioName, currentSceneKey);
+            }
+            prefetcher.onSceneShown(currentSceneKey, scene);
         } else {
             sceneText.setText("Конец сценария.");
             logger.info("Достигнут конец сценария.");
+            TelemetryRecorder.getInstance().recordEnding(sessionId, scenarioName, currentSceneKey);
+            prefetcher.logStats();
         }
     }
 
@@ -141,9 +252,10 @@ public class AddScenario extends BaseWindow {
 
             if (!branchKey.isEmpty() && !branchText.isEmpty() && !choiceOption.isEmpty() && !nextKey.isEmpty()) {
                 logger.info("Сохраняем новую ветку с ключом: " + branchKey);
-                addNewBranch(branchKey, branchText, choiceOption, nextKey);
-                updateScene(sceneText, choicesBox); // Обновить сцену после добавления ветки
-                dialog.close();
+                if (addNewBranch(branchKey, branchText, choiceOption, nextKey)) {
+                    showScene(sceneText, choicesBox); // Данные уже изменены на месте, перечитывать файл не нужно
+                    dialog.close();
+                }
             } else {
                 logger.warn("Не удалось сохранить новую ветку: отсутствуют обязательные поля.");
                 showAlert("Ошибка", "Все поля должны быть заполнены!");
@@ -171,37 +283,131 @@ public class AddScenario extends BaseWindow {
      * @param branchText Текст новой ветки
      * @param choiceOption Вариант выбора, ведущий к новой ветке
      * @param nextKey Ключ следующей сцены после новой ветки
+     * @return {@code true}, если ветка добавлена
      */
-    private void addNewBranch(String branchKey, String branchText, String choiceOption, String nextKey) {
+    private boolean addNewBranch(String branchKey, String branchText, String choiceOption, String nextKey) {
+        // Проверяем, не занят ли ключ, чтобы не перезаписать существующую сцену
+        if (linkIndex.hasScene(branchKey)) {
+            logger.warn("Не удалось добавить ветку: сцена с ключом {} уже существует.", branchKey);
+            showAlert("Ошибка", "Сцена с ключом " + branchKey + " уже существует!");
+            return false;
+        }
+        if (!linkIndex.hasScene(currentSceneKey)) {
+            logger.error("Текущая сцена не найдена в JSON при добавлении ветки!");
+            showAlert("Ошибка", "Текущая сцена не найдена в JSON!");
+            return false;
+        }
+
         // Создаем новую ветку
         JSONObject newBranch = new JSONObject();
         newBranch.put("text", branchText);
         newBranch.put("choices", new JSONArray());
 
-        // Добавляем новую ветку в данные сценария
-        scenarioData.put(branchKey, newBranch);
-
-        // Добавляем новый выбор в текущую сцену
-        if (scenarioData.has(currentSceneKey)) {
-            JSONObject currentScene = scenarioData.getJSONObject(currentSceneKey);
-            JSONArray choices = currentScene.optJSONArray("choices");
-            if (choices == null) {
-                choices = new JSONArray();
-                currentScene.put("choices", choices);
-            }
-
-            JSONObject newChoice = new JSONObject();
-            newChoice.put("option", choiceOption);
-            newChoice.put("next", branchKey);
+        // Добавляем новую ветку в данные сценария и новый выбор в текущую сцену
+        linkIndex.addScene(branchKey, newBranch);
+        linkIndex.addChoice(currentSceneKey, choiceOption, branchKey);
+        prefetcher.invalidate(); // Заранее загруженная текущая сцена ещё без нового выбора
 
-            choices.put(newChoice);
-        } else {
-            logger.error("Текущая сцена не найдена в JSON при добавлении ветки!");
-            showAlert("Ошибка", "Текущая сцена не найдена в JSON!");
+        if (graphWindow != null && graphWindow.isShowing()) {
+            graphWindow.onBranchAdded(currentSceneKey, branchKey);
         }
 
         saveScenarioData(); // Сохраняем обновленные данные сценария
         logger.info("Новая ветка успешно добавлена.");
         showAlert("Успех", "Новая ветка добавлена и выбор обновлен!");
+        return true;
+    }
+
+    /**
+     * Запрашивает у пользователя ключ сцены.
+     *
+     * @param title Заголовок диалога
+     * @param prompt Пояснение к полю ввода
+     * @return Введённый ключ или пустое значение, если ввод отменён или ключ пуст
+     */
+    private Optional<String> askSceneKey(String title, String prompt) {
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.initOwner(stage);
+        dialog.setTitle(title);
+        dialog.setHeaderText(null);
+        dialog.setContentText(prompt);
+        return dialog.showAndWait().map(String::trim).filter(key -> !key.isEmpty());
+    }
+
+    /**
+     * Выполняет изменение структуры сценария через индекс переходов и сохраняет результат.
+     *
+     * @param description Описание изменения для лога
+     * @param edit Изменение, бросающее {@link IllegalArgumentException}, если его нельзя выполнить
+     * @return {@code true}, если изменение выполнено
+     */
+    private boolean editScenario(String description, Runnable edit) {
+        if (linkIndex == null) {
+            showAlert("Ошибка", "Сценарий не загружен.");
+            return false;
+        }
+        try {
+            edit.run();
+        } catch (IllegalArgumentException e) {
+            logger.warn("Не удалось выполнить изменение '{}': {}", description, e.getMessage());
+            showAlert("Ошибка", e.getMessage());
+            return false;
+        }
+        prefetcher.invalidate(); // Заранее загруженные сцены могли измениться или исчезнуть
+        if (graphWindow != null && graphWindow.isShowing()) {
+            graphWindow.relayout(scenarioData);
+        }
+        saveScenarioData();
+        logger.info("Выполнено изменение сценария: {}", description);
+        return true;
+    }
+
+    /**
+     * Переименовывает текущую сцену вместе со всеми ведущими в неё выборами.
+     */
+    private void renameCurrentScene(TextArea sceneText, VBox choicesBox) {
+        askSceneKey("Переименовать сцену", "Новый ключ сцены " + currentSceneKey + ":").ifPresent(newKey -> {
+            String oldKey = currentSceneKey;
+            if (editScenario("переименование " + oldKey + " в " + newKey, () -> linkIndex.renameScene(oldKey, newKey))) {
+                currentSceneKey = newKey;
+                showScene(sceneText, choicesBox);
+            }
+        });
+    }
+
+    /**
+     * Удаляет текущую сцену и сцены, в которые после этого нельзя попасть.
+     */
+    private void deleteCurrentScene(TextArea sceneText, VBox choicesBox) {
+        String rootKey = currentSceneKey;
+        if (rootKey.equals("start")) {
+            showAlert("Ошибка", "Начальную сцену удалить нельзя.");
+            return;
+        }
+        Alert confirmation = new Alert(Alert.AlertType.CONFIRMATION);
+        confirmation.setTitle("Удалить сцену");
+        confirmation.setHeaderText(null);
+        confirmation.setContentText("Удалить сцену " + rootKey + " и сцены, в которые можно попасть только через неё?");
+        if (confirmation.showAndWait().filter(ButtonType.OK::equals).isEmpty()) {
+            return;
+        }
+        Set<String> deleted = new HashSet<>();
+        if (editScenario("удаление " + rootKey, () -> deleted.addAll(linkIndex.deleteSubtree(rootKey)))) {
+            showAlert("Успех", "Удалено сцен: " + deleted.size());
+            currentSceneKey = "start";
+            showScene(sceneText, choicesBox);
+        }
+    }
+
+    /**
+     * Сливает с текущей сценой её дубликат: выборы, ведущие в дубликат, переводятся на текущую сцену.
+     */
+    private void mergeIntoCurrentScene(TextArea sceneText, VBox choicesBox) {
+        askSceneKey("Объединить сцены", "Ключ сцены-дубликата для слияния с " + currentSceneKey + ":").ifPresent(duplicateKey -> {
+            String keepKey = currentSceneKey;
+            if (editScenario("слияние " + duplicateKey + " с " + keepKey, () -> linkIndex.mergeScenes(keepKey, duplicateKey))) {
+                showScene(sceneText, choicesBox);
+            }
+        });
     }
 }
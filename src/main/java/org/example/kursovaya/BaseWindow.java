@@ -6,6 +6,7 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import org.apache.logging.log4j.LogManager;
@@ -19,7 +20,9 @@ public class BaseWindow {
     private static final Logger logger = LogManager.getLogger(BaseWindow.class); // Логгер для логирования действий
     protected String scenarioName;  // Название сценария
     protected JSONObject scenarioData;  // Данные сценария в формате JSON
+    protected SceneLinkIndex linkIndex; // Обратный индекс переходов между сценами
     protected String baseDirectory; // Абсолютный путь к папке с сценариями
+    private String residentKey;     // Ключ сценария, закреплённого окном в кэше
 
     /**
      * Конструктор для инициализации окна с указанным сценарием.
@@ -42,11 +45,13 @@ public class BaseWindow {
         File scenarioFile = new File(baseDirectory + File.separator + scenarioName + File.separator + "scenario.txt");
         try {
             if (scenarioFile.exists()) {
-                String content = new String(Files.readAllBytes(scenarioFile.toPath()));
-                scenarioData = new JSONObject(content);
-
-                // Проверяем структуру JSON
-                validateScenarioData();
+                // Окна одного сценария используют общий экземпляр данных и индекса из кэша
+                String key = scenarioFile.getAbsolutePath();
+                ScenarioResidencyManager.LoadedScenario loaded = ScenarioResidencyManager.getShared()
+                        .acquire(key, path -> readScenarioFile(new File(path)));
+                residentKey = key;
+                scenarioData = loaded.getData();
+                linkIndex = loaded.getLinkIndex();
                 logger.info("Сценарий {} загружен успешно.", scenarioName);
             } else {
                 logger.warn("Файл сценария не найден: {}. Создание нового сценария по умолчанию.", scenarioFile.getAbsolutePath());
@@ -66,6 +71,10 @@ public class BaseWindow {
         File scenarioFile = new File(baseDirectory + File.separator + scenarioName + File.separator + "scenario.txt");
         try {
             Files.writeString(scenarioFile.toPath(), scenarioData.toString(4), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            if (residentKey != null) {
+                // Сценарий изменён на месте, поэтому его размер в кэше пересчитывается
+                ScenarioResidencyManager.getShared().updateWeight(residentKey);
+            }
             logger.info("Сценарий {} успешно сохранён.", scenarioName);
         } catch (IOException e) {
             logger.error("Не удалось сохранить сценарий: {}", e.getMessage(), e);
@@ -73,10 +82,31 @@ public class BaseWindow {
         }
     }
 
+    /**
+     * Читает файл сценария и проверяет его структуру.
+     *
+     * @param scenarioFile Файл сценария
+     * @return Данные сценария в формате JSON
+     */
+    private JSONObject readScenarioFile(File scenarioFile) {
+        try {
+            String content = new String(Files.readAllBytes(scenarioFile.toPath()));
+            JSONObject data = new JSONObject(content);
+
+            // Проверяем структуру JSON
+            validateScenarioData(data);
+            return data;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * Проверяет структуру сценария и исправляет ошибки, если это возможно.
+     *
+     * @param scenarioData Данные сценария в формате JSON
      */
-    private void validateScenarioData() {
+    private void validateScenarioData(JSONObject scenarioData) {
         try {
             for (String key : scenarioData.keySet()) {
                 JSONObject node = scenarioData.getJSONObject(key);
@@ -106,11 +136,15 @@ public class BaseWindow {
         try {
             File scenarioFile = new File(baseDirectory + File.separator + scenarioName + File.separator + "scenario.txt");
             if (scenarioFile.exists()) {
-                String content = new String(Files.readAllBytes(scenarioFile.toPath()));
-                scenarioData = new JSONObject(content);
-
-                // Проверяем структуру JSON
-                validateScenarioData();
+                ScenarioResidencyManager manager = ScenarioResidencyManager.getShared();
+                String key = scenarioFile.getAbsolutePath();
+                // Данные обновляются на месте, поэтому другие окна сценария тоже видят новую версию
+                ScenarioResidencyManager.LoadedScenario loaded = residentKey != null
+                        ? manager.reload(key, path -> readScenarioFile(new File(path)))
+                        : manager.acquire(key, path -> readScenarioFile(new File(path)));
+                residentKey = key;
+                scenarioData = loaded.getData();
+                linkIndex = loaded.getLinkIndex();
                 logger.info("Сценарий {} успешно обновлён.", scenarioName);
             } else {
                 throw new IOException("Файл сценария не существует: " + scenarioFile.getAbsolutePath());
@@ -121,6 +155,18 @@ public class BaseWindow {
         }
     }
 
+    /**
+     * Освобождает сценарий в кэше при закрытии окна, чтобы его можно было вытеснить.
+     */
+    public void close() {
+        if (residentKey != null) {
+            ScenarioResidencyManager manager = ScenarioResidencyManager.getShared();
+            manager.release(residentKey);
+            residentKey = null;
+            manager.logStats();
+        }
+    }
+
     /**
      * Отображает всплывающее окно с сообщением об ошибке или успехе.
      *
@@ -0,0 +1,633 @@
+package org.example.kursovaya;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Послойная раскладка графа сценария (сцены и переходы {@code choices}/{@code next}).
+ * Хранит координаты узлов в плоских массивах, пространственные индексы узлов и рёбер
+ * (квадродеревья) и уровни кластеризации для отрисовки крупным планом и издалека.
+ * Не зависит от JavaFX, поэтому может вычисляться в фоновом потоке.
+ */
+public class ScenarioGraphLayout {
+    /** Расстояние между слоями по горизонтали. */
+    public static final double LAYER_SPACING = 220;
+    /** Расстояние между узлами одного слоя по вертикали. */
+    public static final double NODE_SPACING = 40;
+    /** Размер ячейки самого детального уровня кластеризации. */
+    private static final double BASE_CLUSTER_CELL = 4 * NODE_SPACING;
+    /** Кластеризация прекращается, когда на уровне остаётся меньше кластеров. */
+    private static final int MIN_CLUSTERS_PER_LEVEL = 64;
+
+    private final Map<String, Integer> indexByKey = new HashMap<>(); // Номер узла по ключу сцены
+    private String[] keys = new String[16];
+    private double[] xs = new double[16];
+    private double[] ys = new double[16];
+    private int[] layers = new int[16];
+    private int[][] children = new int[16][]; // Исходящие рёбра узла
+    private int nodeCount;
+    private final List<Integer> layerSizes = new ArrayList<>(); // Число узлов в каждом слое
+    private QuadTree nodeTree;
+    private EdgeTree edgeTree;
+    private final List<ClusterLevel> clusterLevels = new ArrayList<>();
+
+    /**
+     * Строит раскладку по данным сценария.
+     * Слой узла равен длине кратчайшего пути от сцены "start"; недостижимые
+     * сцены размещаются в отдельных слоях после достижимых.
+     *
+     * @param scenarioData Данные сценария в формате JSON
+     * @return Готовая раскладка
+     */
+    public static ScenarioGraphLayout compute(JSONObject scenarioData) {
+        return compute(Snapshot.of(scenarioData));
+    }
+
+    /**
+     * Строит раскладку по снимку графа сценария.
+     *
+     * @param snapshot Снимок графа, сделанный {@link Snapshot#of(JSONObject)}
+     * @return Готовая раскладка
+     */
+    public static ScenarioGraphLayout compute(Snapshot snapshot) {
+        ScenarioGraphLayout layout = new ScenarioGraphLayout();
+        for (String key : snapshot.keys) {
+            layout.register(key);
+        }
+        System.arraycopy(snapshot.edges, 0, layout.children, 0, layout.nodeCount);
+
+        int[] layerOf = new int[layout.nodeCount];
+        Arrays.fill(layerOf, -1);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        Integer start = layout.indexByKey.get("start");
+        int maxLayer = -1;
+        if (start != null) {
+            layerOf[start] = 0;
+            queue.add(start);
+            maxLayer = layout.bfs(queue, layerOf, 0);
+        }
+        // Недостижимые компоненты раскладываем так же, начиная со следующего слоя
+        for (int i = 0; i < layout.nodeCount; i++) {
+            if (layerOf[i] < 0) {
+                layerOf[i] = maxLayer + 1;
+                queue.add(i);
+                maxLayer = layout.bfs(queue, layerOf, maxLayer + 1);
+            }
+        }
+
+        for (int i = 0; i < layout.nodeCount; i++) {
+            layout.place(i, layerOf[i]);
+        }
+        layout.rebuildIndexes();
+        return layout;
+    }
+
+    /**
+     * Обходит граф в ширину, назначая слои ещё не размещённым узлам.
+     *
+     * @return Номер наибольшего назначенного слоя
+     */
+    private int bfs(ArrayDeque<Integer> queue, int[] layerOf, int maxLayer) {
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int next : children[node]) {
+                if (layerOf[next] < 0) {
+                    layerOf[next] = layerOf[node] + 1;
+                    maxLayer = Math.max(maxLayer, layerOf[next]);
+                    queue.add(next);
+                }
+            }
+        }
+        return maxLayer;
+    }
+
+    /**
+     * Добавляет узел и ребро к нему без пересчёта всей раскладки.
+     * Новый узел ставится в конец слоя, следующего за слоем родителя.
+     * Если узел с таким ключом уже есть, добавляется только ребро.
+     *
+     * @param parentKey Ключ сцены, из которой ведёт выбор
+     * @param key Ключ добавленной сцены
+     */
+    public void addNode(String parentKey, String key) {
+        Integer parent = indexByKey.get(parentKey);
+        Integer existing = indexByKey.get(key);
+        int node;
+        if (existing == null) {
+            node = register(key);
+            children[node] = new int[0];
+            place(node, parent != null ? layers[parent] + 1 : layerSizes.size());
+            if (!nodeTree.contains(xs[node], ys[node])) {
+                rebuildIndexes(); // Узел вышел за границы дерева - перестраиваем с запасом
+            } else {
+                nodeTree.insert(node, xs[node], ys[node]);
+                for (ClusterLevel level : clusterLevels) {
+                    level.add(xs[node], ys[node]);
+                }
+            }
+        } else {
+            node = existing;
+        }
+        if (parent != null) {
+            int[] old = children[parent];
+            int[] updated = Arrays.copyOf(old, old.length + 1);
+            updated[old.length] = node;
+            children[parent] = updated;
+            edgeTree.insert(parent, node, xs[parent], ys[parent], xs[node], ys[node]);
+        }
+    }
+
+    /**
+     * Регистрирует ключ сцены и выделяет под него место в массивах.
+     */
+    private int register(String key) {
+        if (nodeCount == keys.length) {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            layers = Arrays.copyOf(layers, capacity);
+            children = Arrays.copyOf(children, capacity);
+        }
+        int index = nodeCount++;
+        keys[index] = key;
+        indexByKey.put(key, index);
+        return index;
+    }
+
+    /**
+     * Ставит узел в конец указанного слоя.
+     */
+    private void place(int node, int layer) {
+        while (layerSizes.size() <= layer) {
+            layerSizes.add(0);
+        }
+        int slot = layerSizes.get(layer);
+        layerSizes.set(layer, slot + 1);
+        layers[node] = layer;
+        xs[node] = layer * LAYER_SPACING;
+        ys[node] = slot * NODE_SPACING;
+    }
+
+    /**
+     * Перестраивает квадродеревья узлов и рёбер и уровни кластеризации по текущим координатам.
+     * Границы берутся с двукратным запасом, чтобы инкрементальные добавления
+     * редко требовали повторной перестройки.
+     */
+    private void rebuildIndexes() {
+        double width = Math.max(1, layerSizes.size()) * LAYER_SPACING * 2;
+        int tallest = 1;
+        for (int size : layerSizes) {
+            tallest = Math.max(tallest, size);
+        }
+        double height = tallest * NODE_SPACING * 2;
+
+        nodeTree = new QuadTree(-LAYER_SPACING, -NODE_SPACING, width, height, 0);
+        for (int i = 0; i < nodeCount; i++) {
+            nodeTree.insert(i, xs[i], ys[i]);
+        }
+        edgeTree = new EdgeTree(-LAYER_SPACING, -NODE_SPACING, width, height, 0);
+        for (int i = 0; i < nodeCount; i++) {
+            for (int child : children[i]) {
+                edgeTree.insert(i, child, xs[i], ys[i], xs[child], ys[child]);
+            }
+        }
+
+        clusterLevels.clear();
+        double cell = BASE_CLUSTER_CELL;
+        while (true) {
+            ClusterLevel level = new ClusterLevel(cell, nodeTree);
+            for (int i = 0; i < nodeCount; i++) {
+                level.add(xs[i], ys[i]);
+            }
+            clusterLevels.add(level);
+            if (level.size() < MIN_CLUSTERS_PER_LEVEL || cell > Math.max(width, height)) {
+                break;
+            }
+            cell *= 2;
+        }
+    }
+
+    /**
+     * Выбирает уровень кластеризации для заданного масштаба.
+     *
+     * @param scale Масштаб (пикселей на единицу раскладки)
+     * @param minNodePixels Минимальное расстояние между узлами на экране, при котором узлы рисуются по отдельности
+     * @return Уровень кластеризации или {@code null}, если узлы нужно рисовать по отдельности
+     */
+    public ClusterLevel levelForScale(double scale, double minNodePixels) {
+        if (NODE_SPACING * scale >= minNodePixels) {
+            return null;
+        }
+        for (ClusterLevel level : clusterLevels) {
+            if (level.cellSize * scale >= minNodePixels * 4) {
+                return level;
+            }
+        }
+        return clusterLevels.get(clusterLevels.size() - 1);
+    }
+
+    /**
+     * Перебирает узлы, попадающие в прямоугольник.
+     */
+    public void queryNodes(double minX, double minY, double maxX, double maxY, IntConsumer action) {
+        nodeTree.query(minX, minY, maxX, maxY, action);
+    }
+
+    /**
+     * Перебирает рёбра, отрезки которых пересекают прямоугольник, в том числе
+     * рёбра, оба конца которых лежат за его пределами.
+     */
+    public void queryEdges(double minX, double minY, double maxX, double maxY, EdgeConsumer action) {
+        edgeTree.query(minX, minY, maxX, maxY, action);
+    }
+
+    /**
+     * Получатель рёбер из {@link #queryEdges}.
+     */
+    @FunctionalInterface
+    public interface EdgeConsumer {
+        void accept(int from, int to);
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public String key(int node) {
+        return keys[node];
+    }
+
+    public double x(int node) {
+        return xs[node];
+    }
+
+    public double y(int node) {
+        return ys[node];
+    }
+
+    public int[] children(int node) {
+        return children[node];
+    }
+
+    /**
+     * Снимок графа сценария: ключи сцен и рёбра между ними в виде массивов.
+     * Снимается в потоке JavaFX за один проход по сценарию без сериализации,
+     * после чего раскладка строится по нему в фоновом потоке, не обращаясь к JSON.
+     */
+    public static final class Snapshot {
+        private final String[] keys;
+        private final int[][] edges; // Исходящие рёбра узла по номерам в keys
+
+        private Snapshot(String[] keys, int[][] edges) {
+            this.keys = keys;
+            this.edges = edges;
+        }
+
+        /**
+         * Снимает граф с данных сценария.
+         *
+         * @param scenarioData Данные сценария в формате JSON
+         * @return Снимок графа
+         */
+        public static Snapshot of(JSONObject scenarioData) {
+            String[] keys = scenarioData.keySet().toArray(new String[0]);
+            Map<String, Integer> indexByKey = new HashMap<>(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) {
+                indexByKey.put(keys[i], i);
+            }
+
+            int[][] edges = new int[keys.length][];
+            for (int from = 0; from < keys.length; from++) {
+                JSONObject node = scenarioData.optJSONObject(keys[from]);
+                JSONArray choices = node != null ? node.optJSONArray("choices") : null;
+                if (choices == null) {
+                    edges[from] = new int[0];
+                    continue;
+                }
+                int[] targets = new int[choices.length()];
+                int count = 0;
+                for (int i = 0; i < choices.length(); i++) {
+                    JSONObject choice = choices.optJSONObject(i);
+                    Integer to = choice != null ? indexByKey.get(choice.optString("next", "")) : null;
+                    if (to != null) {
+                        targets[count++] = to;
+                    }
+                }
+                edges[from] = Arrays.copyOf(targets, count);
+            }
+            return new Snapshot(keys, edges);
+        }
+    }
+
+    /**
+     * Квадродерево точек для отсечения узлов за пределами видимой области.
+     */
+    static final class QuadTree {
+        private static final int CAPACITY = 32;
+        private static final int MAX_DEPTH = 20;
+
+        private final double minX, minY, maxX, maxY;
+        private final int depth;
+        private int[] ids = new int[CAPACITY];
+        private double[] px = new double[CAPACITY];
+        private double[] py = new double[CAPACITY];
+        private int size;
+        private QuadTree[] quadrants;
+
+        QuadTree(double minX, double minY, double maxX, double maxY, int depth) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.depth = depth;
+        }
+
+        boolean contains(double x, double y) {
+            return x >= minX && x < maxX && y >= minY && y < maxY;
+        }
+
+        void insert(int id, double x, double y) {
+            if (quadrants != null) {
+                quadrantFor(x, y).insert(id, x, y);
+                return;
+            }
+            if (size == ids.length) {
+                if (depth < MAX_DEPTH) {
+                    split();
+                    quadrantFor(x, y).insert(id, x, y);
+                    return;
+                }
+                // На максимальной глубине просто расширяем лист
+                ids = Arrays.copyOf(ids, size * 2);
+                px = Arrays.copyOf(px, size * 2);
+                py = Arrays.copyOf(py, size * 2);
+            }
+            ids[size] = id;
+            px[size] = x;
+            py[size] = y;
+            size++;
+        }
+
+        private void split() {
+            double midX = (minX + maxX) / 2;
+            double midY = (minY + maxY) / 2;
+            quadrants = new QuadTree[]{
+                    new QuadTree(minX, minY, midX, midY, depth + 1),
+                    new QuadTree(midX, minY, maxX, midY, depth + 1),
+                    new QuadTree(minX, midY, midX, maxY, depth + 1),
+                    new QuadTree(midX, midY, maxX, maxY, depth + 1)
+            };
+            for (int i = 0; i < size; i++) {
+                quadrantFor(px[i], py[i]).insert(ids[i], px[i], py[i]);
+            }
+            ids = null;
+            px = null;
+            py = null;
+            size = 0;
+        }
+
+        private QuadTree quadrantFor(double x, double y) {
+            double midX = (minX + maxX) / 2;
+            double midY = (minY + maxY) / 2;
+            return quadrants[(x < midX ? 0 : 1) + (y < midY ? 0 : 2)];
+        }
+
+        void query(double qMinX, double qMinY, double qMaxX, double qMaxY, IntConsumer action) {
+            if (qMaxX < minX || qMinX >= maxX || qMaxY < minY || qMinY >= maxY) {
+                return;
+            }
+            if (quadrants != null) {
+                for (QuadTree quadrant : quadrants) {
+                    quadrant.query(qMinX, qMinY, qMaxX, qMaxY, action);
+                }
+                return;
+            }
+            for (int i = 0; i < size; i++) {
+                if (px[i] >= qMinX && px[i] <= qMaxX && py[i] >= qMinY && py[i] <= qMaxY) {
+                    action.accept(ids[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Квадродерево рёбер: ребро хранится в самом глубоком узле дерева, целиком вмещающем
+     * его ограничивающий прямоугольник, поэтому длинные рёбра (например, возвраты к "start")
+     * находятся запросом к любой области, которую пересекают.
+     */
+    static final class EdgeTree {
+        private static final int CAPACITY = 32;
+        private static final int MAX_DEPTH = 16;
+
+        private final double minX, minY, maxX, maxY;
+        private final int depth;
+        private int[] from = new int[CAPACITY];
+        private int[] to = new int[CAPACITY];
+        private double[] coords = new double[CAPACITY * 4]; // x1, y1, x2, y2 для каждого ребра
+        private int size;
+        private EdgeTree[] quadrants;
+
+        EdgeTree(double minX, double minY, double maxX, double maxY, int depth) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.depth = depth;
+        }
+
+        void insert(int a, int b, double x1, double y1, double x2, double y2) {
+            if (quadrants == null && size == from.length && depth < MAX_DEPTH) {
+                split();
+            }
+            if (quadrants != null) {
+                EdgeTree quadrant = quadrantFor(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+                if (quadrant != null) {
+                    quadrant.insert(a, b, x1, y1, x2, y2);
+                    return;
+                }
+            }
+            add(a, b, x1, y1, x2, y2);
+        }
+
+        private void add(int a, int b, double x1, double y1, double x2, double y2) {
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+                coords = Arrays.copyOf(coords, size * 8);
+            }
+            from[size] = a;
+            to[size] = b;
+            coords[size * 4] = x1;
+            coords[size * 4 + 1] = y1;
+            coords[size * 4 + 2] = x2;
+            coords[size * 4 + 3] = y2;
+            size++;
+        }
+
+        private void split() {
+            double midX = (minX + maxX) / 2;
+            double midY = (minY + maxY) / 2;
+            quadrants = new EdgeTree[]{
+                    new EdgeTree(minX, minY, midX, midY, depth + 1),
+                    new EdgeTree(midX, minY, maxX, midY, depth + 1),
+                    new EdgeTree(minX, midY, midX, maxY, depth + 1),
+                    new EdgeTree(midX, midY, maxX, maxY, depth + 1)
+            };
+            // Рёбра, вмещающиеся в один квадрант, переносятся в него, остальные остаются здесь
+            int[] oldFrom = from;
+            int[] oldTo = to;
+            double[] oldCoords = coords;
+            int oldSize = size;
+            from = new int[CAPACITY];
+            to = new int[CAPACITY];
+            coords = new double[CAPACITY * 4];
+            size = 0;
+            for (int i = 0; i < oldSize; i++) {
+                insert(oldFrom[i], oldTo[i], oldCoords[i * 4], oldCoords[i * 4 + 1], oldCoords[i * 4 + 2], oldCoords[i * 4 + 3]);
+            }
+        }
+
+        /**
+         * Возвращает квадрант, целиком вмещающий прямоугольник, или {@code null}, если такого нет.
+         */
+        private EdgeTree quadrantFor(double bMinX, double bMinY, double bMaxX, double bMaxY) {
+            for (EdgeTree quadrant : quadrants) {
+                if (bMinX >= quadrant.minX && bMaxX < quadrant.maxX && bMinY >= quadrant.minY && bMaxY < quadrant.maxY) {
+                    return quadrant;
+                }
+            }
+            return null;
+        }
+
+        void query(double qMinX, double qMinY, double qMaxX, double qMaxY, EdgeConsumer action) {
+            // Корень хранит и рёбра за его границами, поэтому отсекается только по дочерним узлам
+            if (depth > 0 && (qMaxX < minX || qMinX >= maxX || qMaxY < minY || qMinY >= maxY)) {
+                return;
+            }
+            for (int i = 0; i < size; i++) {
+                if (crosses(coords[i * 4], coords[i * 4 + 1], coords[i * 4 + 2], coords[i * 4 + 3],
+                        qMinX, qMinY, qMaxX, qMaxY)) {
+                    action.accept(from[i], to[i]);
+                }
+            }
+            if (quadrants != null) {
+                for (EdgeTree quadrant : quadrants) {
+                    quadrant.query(qMinX, qMinY, qMaxX, qMaxY, action);
+                }
+            }
+        }
+
+        /**
+         * Проверяет, пересекает ли отрезок прямоугольник (отсечение Лианга - Барски).
+         */
+        static boolean crosses(double x1, double y1, double x2, double y2,
+                               double minX, double minY, double maxX, double maxY) {
+            if (Math.max(x1, x2) < minX || Math.min(x1, x2) > maxX || Math.max(y1, y2) < minY || Math.min(y1, y2) > maxY) {
+                return false;
+            }
+            double dx = x2 - x1;
+            double dy = y2 - y1;
+            double enter = 0;
+            double exit = 1;
+            double[] p = {-dx, dx, -dy, dy};
+            double[] q = {x1 - minX, maxX - x1, y1 - minY, maxY - y1};
+            for (int i = 0; i < 4; i++) {
+                if (p[i] == 0) {
+                    if (q[i] < 0) {
+                        return false;
+                    }
+                } else {
+                    double t = q[i] / p[i];
+                    if (p[i] < 0) {
+                        enter = Math.max(enter, t);
+                    } else {
+                        exit = Math.min(exit, t);
+                    }
+                    if (enter > exit) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Уровень кластеризации: узлы объединяются по ячейкам квадратной сетки.
+     * Кластер располагается в центре своей ячейки, поэтому его позиция
+     * не меняется при добавлении узлов.
+     */
+    public static final class ClusterLevel {
+        private final double cellSize;
+        private final Map<Long, Integer> clusterByCell = new HashMap<>();
+        private double[] cx = new double[16];
+        private double[] cy = new double[16];
+        private int[] counts = new int[16];
+        private int size;
+        private final QuadTree tree;
+
+        ClusterLevel(double cellSize, QuadTree bounds) {
+            this.cellSize = cellSize;
+            this.tree = new QuadTree(bounds.minX - cellSize, bounds.minY - cellSize,
+                    bounds.maxX + cellSize, bounds.maxY + cellSize, 0);
+        }
+
+        void add(double x, double y) {
+            long cellX = (long) Math.floor(x / cellSize);
+            long cellY = (long) Math.floor(y / cellSize);
+            long cellKey = (cellX << 32) ^ (cellY & 0xffffffffL);
+            Integer cluster = clusterByCell.get(cellKey);
+            if (cluster != null) {
+                counts[cluster]++;
+                return;
+            }
+            if (size == counts.length) {
+                cx = Arrays.copyOf(cx, size * 2);
+                cy = Arrays.copyOf(cy, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            cx[size] = (cellX + 0.5) * cellSize;
+            cy[size] = (cellY + 0.5) * cellSize;
+            counts[size] = 1;
+            clusterByCell.put(cellKey, size);
+            tree.insert(size, cx[size], cy[size]);
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public double cellSize() {
+            return cellSize;
+        }
+
+        public double x(int cluster) {
+            return cx[cluster];
+        }
+
+        public double y(int cluster) {
+            return cy[cluster];
+        }
+
+        public int count(int cluster) {
+            return counts[cluster];
+        }
+
+        /**
+         * Перебирает кластеры, попадающие в прямоугольник.
+         */
+        public void query(double minX, double minY, double maxX, double maxY, IntConsumer action) {
+            tree.query(minX, minY, maxX, maxY, action);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package org.example.kursovaya;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Окно с картой сценария.
+ * Граф рисуется на одном {@link Canvas} без создания узлов JavaFX для каждой сцены:
+ * видимые узлы выбираются через квадродерево, а при отдалении узлы заменяются кластерами.
+ */
+public class ScenarioGraphWindow {
+    private static final Logger logger = LogManager.getLogger(ScenarioGraphWindow.class); // Логгер для записи действий
+    private static final double NODE_RADIUS = 6;
+    private static final double MIN_NODE_PIXELS = 12; // Ближе узлы рисуются кластерами
+    private static final double LABEL_SCALE = 0.8;    // Начиная с этого масштаба подписываются ключи сцен
+
+    private final Stage stage = new Stage();
+    private final Canvas canvas = new Canvas();
+    private final List<String[]> pendingBranches = new ArrayList<>(); // Ветки, добавленные во время раскладки
+    private ScenarioGraphLayout layout;
+    private int layoutGeneration; // Номер последней запущенной раскладки
+    private double scale = 1;   // Масштаб
+    private double offsetX = 20; // Смещение карты по горизонтали
+    private double offsetY = 20; // Смещение карты по вертикали
+    private double dragX, dragY;
+    private boolean dirty = true; // Требуется перерисовка
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (dirty) {
+                dirty = false;
+                render();
+            }
+        }
+    };
+
+    /**
+     * Конструктор окна карты сценария.
+     *
+     * @param owner Главное окно
+     * @param scenarioName Имя сценария
+     */
+    public ScenarioGraphWindow(Stage owner, String scenarioName) {
+        stage.initOwner(owner);
+        stage.setTitle("Карта сценария: " + scenarioName);
+
+        Pane root = new Pane(canvas);
+        canvas.widthProperty().bind(root.widthProperty());
+        canvas.heightProperty().bind(root.heightProperty());
+        canvas.widthProperty().addListener((obs, oldValue, newValue) -> dirty = true);
+        canvas.heightProperty().addListener((obs, oldValue, newValue) -> dirty = true);
+
+        canvas.setOnMousePressed(e -> {
+            dragX = e.getX();
+            dragY = e.getY();
+        });
+        canvas.setOnMouseDragged(e -> {
+            offsetX += e.getX() - dragX;
+            offsetY += e.getY() - dragY;
+            dragX = e.getX();
+            dragY = e.getY();
+            dirty = true;
+        });
+        canvas.setOnScroll(e -> {
+            // Масштабируем относительно курсора
+            double factor = e.getDeltaY() > 0 ? 1.15 : 1 / 1.15;
+            double newScale = Math.max(1e-4, Math.min(4, scale * factor));
+            offsetX = e.getX() - (e.getX() - offsetX) * newScale / scale;
+            offsetY = e.getY() - (e.getY() - offsetY) * newScale / scale;
+            scale = newScale;
+            dirty = true;
+        });
+
+        stage.setScene(new Scene(root, 800, 600));
+        stage.setOnHidden(e -> timer.stop());
+    }
+
+    /**
+     * Показывает окно и запускает раскладку графа в фоновом потоке.
+     *
+     * @param scenarioData Данные сценария в формате JSON
+     */
+    public void show(JSONObject scenarioData) {
+        startLayout(scenarioData);
+        timer.start();
+        stage.show();
+    }
+
+    /**
+     * Строит раскладку заново после изменений, которые нельзя добавить в неё по месту
+     * (переименование, удаление и слияние сцен). Вызывается из потока JavaFX.
+     *
+     * @param scenarioData Данные сценария в формате JSON
+     */
+    public void relayout(JSONObject scenarioData) {
+        layout = null;
+        dirty = true;
+        startLayout(scenarioData);
+    }
+
+    /**
+     * Снимает граф сценария и запускает по нему раскладку в фоновом потоке.
+     */
+    private void startLayout(JSONObject scenarioData) {
+        // Снимок графа в массивах, чтобы редактирование сценария не мешало фоновому потоку
+        ScenarioGraphLayout.Snapshot snapshot = ScenarioGraphLayout.Snapshot.of(scenarioData);
+        pendingBranches.clear(); // Добавленные ранее ветки уже есть в снимке
+        int generation = ++layoutGeneration;
+        Thread worker = new Thread(() -> {
+            long startTime = System.nanoTime();
+            ScenarioGraphLayout computed = ScenarioGraphLayout.compute(snapshot);
+            logger.info("Раскладка карты сценария ({} сцен) построена за {} мс.",
+                    computed.nodeCount(), (System.nanoTime() - startTime) / 1_000_000);
+            Platform.runLater(() -> {
+                if (generation != layoutGeneration) {
+                    return; // Пока шла раскладка, запущена более новая
+                }
+                layout = computed;
+                for (String[] branch : pendingBranches) {
+                    layout.addNode(branch[0], branch[1]);
+                }
+                pendingBranches.clear();
+                dirty = true;
+            });
+        }, "scenario-graph-layout");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Показывает, открыто ли окно карты.
+     */
+    public boolean isShowing() {
+        return stage.isShowing();
+    }
+
+    /**
+     * Выводит уже открытое окно карты на передний план.
+     */
+    public void toFront() {
+        stage.toFront();
+    }
+
+    /**
+     * Добавляет на карту новую ветку без полного пересчёта раскладки.
+     * Вызывается из потока JavaFX.
+     *
+     * @param parentKey Ключ сцены, из которой ведёт новый выбор
+     * @param branchKey Ключ новой сцены
+     */
+    public void onBranchAdded(String parentKey, String branchKey) {
+        if (layout == null) {
+            pendingBranches.add(new String[]{parentKey, branchKey});
+            return;
+        }
+        layout.addNode(parentKey, branchKey);
+        dirty = true;
+    }
+
+    /**
+     * Перерисовывает видимую часть карты.
+     */
+    private void render() {
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        gc.setFill(Color.WHITE);
+        gc.fillRect(0, 0, width, height);
+
+        if (layout == null) {
+            gc.setFill(Color.GRAY);
+            gc.fillText("Построение карты сценария...", 10, 20);
+            return;
+        }
+
+        // Видимая область в координатах раскладки
+        double minX = -offsetX / scale;
+        double minY = -offsetY / scale;
+        double maxX = (width - offsetX) / scale;
+        double maxY = (height - offsetY) / scale;
+
+        ScenarioGraphLayout.ClusterLevel level = layout.levelForScale(scale, MIN_NODE_PIXELS);
+        if (level != null) {
+            renderClusters(gc, level, minX, minY, maxX, maxY);
+        } else {
+            renderNodes(gc, minX, minY, maxX, maxY);
+        }
+    }
+
+    /**
+     * Рисует кластеры: площадь круга пропорциональна числу сцен в нём.
+     */
+    private void renderClusters(GraphicsContext gc, ScenarioGraphLayout.ClusterLevel level,
+                                double minX, double minY, double maxX, double maxY) {
+        double margin = level.cellSize();
+        double maxRadius = level.cellSize() * scale / 2;
+        gc.setFill(Color.STEELBLUE);
+        level.query(minX - margin, minY - margin, maxX + margin, maxY + margin, cluster -> {
+            double radius = Math.min(maxRadius, 2 + Math.sqrt(level.count(cluster)));
+            double sx = level.x(cluster) * scale + offsetX;
+            double sy = level.y(cluster) * scale + offsetY;
+            gc.fillOval(sx - radius, sy - radius, radius * 2, radius * 2);
+        });
+    }
+
+    /**
+     * Рисует отдельные сцены и все переходы, пересекающие видимую область.
+     */
+    private void renderNodes(GraphicsContext gc, double minX, double minY, double maxX, double maxY) {
+        boolean labels = scale >= LABEL_SCALE;
+
+        gc.setStroke(Color.LIGHTGRAY);
+        gc.setLineWidth(1);
+        layout.queryEdges(minX, minY, maxX, maxY, (from, to) -> gc.strokeLine(
+                layout.x(from) * scale + offsetX, layout.y(from) * scale + offsetY,
+                layout.x(to) * scale + offsetX, layout.y(to) * scale + offsetY));
+
+        layout.queryNodes(minX, minY, maxX, maxY, node -> {
+            double sx = layout.x(node) * scale + offsetX;
+            double sy = layout.y(node) * scale + offsetY;
+            gc.setFill(layout.children(node).length == 0 ? Color.INDIANRED : Color.STEELBLUE);
+            gc.fillOval(sx - NODE_RADIUS, sy - NODE_RADIUS, NODE_RADIUS * 2, NODE_RADIUS * 2);
+            if (labels) {
+                gc.setFill(Color.BLACK);
+                gc.fillText(layout.key(node), sx + NODE_RADIUS + 2, sy + 4);
+            }
+        });
+    }
+}
@@ -0,0 +1,555 @@
+package org.example.kursovaya;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Общий для всех окон кэш загруженных сценариев с ограничением по памяти.
+ * Все окна одного сценария получают один и тот же экземпляр данных и построенный по ним
+ * индекс переходов. Когда оценка занятой памяти превышает бюджет, вытесняются редко и давно
+ * используемые сценарии (политика W-TinyLFU: небольшое LRU-окно для новых сценариев и основная
+ * область, куда сценарий допускается, только если он используется чаще вытесняемого).
+ * Сценарии, закреплённые открытыми окнами ({@link #acquire}), не вытесняются, чтобы
+ * при следующем обращении не появилась вторая копия; остальные вытесненные сценарии
+ * загружаются заново при следующем обращении.
+ */
+public class ScenarioResidencyManager {
+    private static final Logger logger = LogManager.getLogger(ScenarioResidencyManager.class); // Логгер для записи действий
+    /** Бюджет памяти по умолчанию, байт. */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final double WINDOW_SHARE = 0.01;    // Доля бюджета под окно новых сценариев
+    private static final double PROTECTED_SHARE = 0.8;  // Доля основной области под часто используемые сценарии
+
+    private static volatile ScenarioResidencyManager shared;
+
+    private final long maxWeight;
+    private final long windowMax;
+    private final long protectedMax;
+    private final Map<String, Node> nodes = new HashMap<>();
+    // Области кэша в порядке от давно использованных к недавно использованным
+    private final LinkedHashMap<String, Node> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Node> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Node> protectedRegion = new LinkedHashMap<>(16, 0.75f, true);
+    private long windowWeight;
+    private long probationWeight;
+    private long protectedWeight;
+    private final FrequencySketch sketch = new FrequencySketch();
+
+    private long hitCount;
+    private long loadCount;
+    private long evictionCount;
+    private long evictedWeight;
+
+    /**
+     * Область кэша, в которой находится сценарий.
+     */
+    private enum Region { WINDOW, PROBATION, PROTECTED }
+
+    /**
+     * Сценарий в кэше: данные и индекс переходов, общие для всех окон сценария.
+     */
+    public static final class LoadedScenario {
+        private final JSONObject data;
+        private final SceneLinkIndex linkIndex;
+
+        LoadedScenario(JSONObject data) {
+            this.data = data;
+            this.linkIndex = new SceneLinkIndex(data);
+        }
+
+        public JSONObject getData() {
+            return data;
+        }
+
+        public SceneLinkIndex getLinkIndex() {
+            return linkIndex;
+        }
+
+        /**
+         * Заменяет содержимое данных на месте, чтобы окна, уже получившие экземпляр, увидели новую версию.
+         */
+        void replaceData(JSONObject fresh) {
+            synchronized (data) {
+                for (String key : new ArrayList<>(data.keySet())) {
+                    data.remove(key);
+                }
+                for (String key : fresh.keySet()) {
+                    data.put(key, fresh.get(key));
+                }
+                linkIndex.rebuild();
+            }
+        }
+    }
+
+    /**
+     * Загруженный сценарий, его оценённый размер и число окон, которые его удерживают.
+     */
+    private static final class Node {
+        private final String key;
+        private final LoadedScenario scenario;
+        private long weight;
+        private int pins;
+        private Region region = Region.WINDOW;
+
+        Node(String key, LoadedScenario scenario, long weight) {
+            this.key = key;
+            this.scenario = scenario;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Возвращает общий экземпляр с бюджетом из системного свойства
+     * {@code kursovaya.scenarioCache.maxBytes} (по умолчанию {@value #DEFAULT_MAX_BYTES} байт).
+     */
+    public static ScenarioResidencyManager getShared() {
+        ScenarioResidencyManager result = shared;
+        if (result == null) {
+            synchronized (ScenarioResidencyManager.class) {
+                result = shared;
+                if (result == null) {
+                    result = new ScenarioResidencyManager(Long.getLong("kursovaya.scenarioCache.maxBytes", DEFAULT_MAX_BYTES));
+                    shared = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Конструктор кэша.
+     *
+     * @param maxWeight Бюджет памяти, байт
+     */
+    public ScenarioResidencyManager(long maxWeight) {
+        this.maxWeight = maxWeight;
+        this.windowMax = Math.max(1, (long) (maxWeight * WINDOW_SHARE));
+        this.protectedMax = (long) ((maxWeight - windowMax) * PROTECTED_SHARE);
+    }
+
+    /**
+     * Возвращает сценарий, загружая его при отсутствии в кэше.
+     *
+     * @param key Ключ сценария (путь к файлу)
+     * @param loader Функция загрузки сценария
+     * @return Общий для всех окон сценарий
+     */
+    public LoadedScenario get(String key, Function<String, JSONObject> loader) {
+        return lookup(key, loader, false);
+    }
+
+    /**
+     * Возвращает сценарий и закрепляет его в кэше до вызова {@link #release(String)}.
+     * Открытое окно держит сценарий закреплённым, поэтому все окна работают с одним экземпляром.
+     *
+     * @param key Ключ сценария (путь к файлу)
+     * @param loader Функция загрузки сценария
+     * @return Общий для всех окон сценарий
+     */
+    public LoadedScenario acquire(String key, Function<String, JSONObject> loader) {
+        return lookup(key, loader, true);
+    }
+
+    /**
+     * Снимает закрепление, сделанное {@link #acquire}. Когда сценарий не удерживает
+     * ни одно окно, он снова может быть вытеснен.
+     *
+     * @param key Ключ сценария
+     */
+    public synchronized void release(String key) {
+        Node node = nodes.get(key);
+        if (node != null && node.pins > 0) {
+            node.pins--;
+            evict();
+        }
+    }
+
+    /**
+     * Загрузка выполняется без блокировки кэша; если сценарий успели загрузить
+     * параллельно, возвращается уже загруженный экземпляр.
+     */
+    private LoadedScenario lookup(String key, Function<String, JSONObject> loader, boolean pin) {
+        synchronized (this) {
+            sketch.increment(key);
+            Node node = nodes.get(key);
+            if (node != null) {
+                hitCount++;
+                onHit(node);
+                if (pin) {
+                    node.pins++;
+                }
+                return node.scenario;
+            }
+        }
+        LoadedScenario loaded = new LoadedScenario(loader.apply(key));
+        synchronized (this) {
+            Node existing = nodes.get(key);
+            if (existing != null) {
+                if (pin) {
+                    existing.pins++;
+                }
+                return existing.scenario;
+            }
+            loadCount++;
+            insert(key, loaded, pin);
+            return loaded;
+        }
+    }
+
+    /**
+     * Загружает сценарий заново. Если сценарий уже в кэше, его данные и индекс обновляются
+     * на месте, поэтому открытые окна продолжают работать с тем же экземпляром.
+     *
+     * @param key Ключ сценария (путь к файлу)
+     * @param loader Функция загрузки сценария
+     * @return Общий для всех окон сценарий
+     */
+    public LoadedScenario reload(String key, Function<String, JSONObject> loader) {
+        JSONObject fresh = loader.apply(key);
+        synchronized (this) {
+            sketch.increment(key);
+            loadCount++;
+            Node node = nodes.get(key);
+            if (node == null) {
+                LoadedScenario loaded = new LoadedScenario(fresh);
+                insert(key, loaded, false);
+                return loaded;
+            }
+            node.scenario.replaceData(fresh);
+            setWeight(node, estimateSize(fresh));
+            return node.scenario;
+        }
+    }
+
+    /**
+     * Пересчитывает оценку размера сценария после изменения его данных на месте
+     * и вытесняет другие сценарии, если бюджет превышен.
+     *
+     * @param key Ключ сценария
+     */
+    public synchronized void updateWeight(String key) {
+        Node node = nodes.get(key);
+        if (node != null) {
+            setWeight(node, estimateSize(node.scenario.getData()));
+        }
+    }
+
+    /**
+     * Удаляет сценарий из кэша, например после удаления его файла.
+     * Окна, уже получившие сценарий, продолжают работать со своим экземпляром.
+     *
+     * @param key Ключ сценария
+     */
+    public synchronized void invalidate(String key) {
+        Node node = nodes.get(key);
+        if (node != null) {
+            remove(node);
+        }
+    }
+
+    /**
+     * Обновляет положение сценария в кэше при обращении к нему.
+     */
+    private void onHit(Node node) {
+        switch (node.region) {
+            case WINDOW:
+                window.get(node.key); // Перемещение в конец порядка доступа
+                break;
+            case PROBATION:
+                // Повторное обращение переводит сценарий в защищённую область
+                probation.remove(node.key);
+                probationWeight -= node.weight;
+                node.region = Region.PROTECTED;
+                protectedRegion.put(node.key, node);
+                protectedWeight += node.weight;
+                demoteProtected();
+                break;
+            case PROTECTED:
+                protectedRegion.get(node.key);
+                break;
+        }
+    }
+
+    /**
+     * Добавляет новый сценарий в окно и вытесняет лишнее.
+     */
+    private void insert(String key, LoadedScenario scenario, boolean pin) {
+        Node node = new Node(key, scenario, estimateSize(scenario.getData()));
+        if (pin) {
+            node.pins = 1; // До вытеснения, чтобы только что загруженный сценарий не был вытеснен сразу
+        }
+        nodes.put(key, node);
+        sketch.ensureCapacity(nodes.size());
+        window.put(key, node);
+        windowWeight += node.weight;
+        evict();
+    }
+
+    /**
+     * Меняет оценку размера сценария с учётом области, в которой он находится.
+     */
+    private void setWeight(Node node, long weight) {
+        long delta = weight - node.weight;
+        node.weight = weight;
+        switch (node.region) {
+            case WINDOW:
+                windowWeight += delta;
+                break;
+            case PROBATION:
+                probationWeight += delta;
+                break;
+            case PROTECTED:
+                protectedWeight += delta;
+                demoteProtected();
+                break;
+        }
+        evict();
+    }
+
+    /**
+     * Переносит давно использованные сценарии из переполненной защищённой области в испытательную.
+     */
+    private void demoteProtected() {
+        Iterator<Node> iterator = protectedRegion.values().iterator();
+        while (protectedWeight > protectedMax && iterator.hasNext()) {
+            Node node = iterator.next();
+            iterator.remove();
+            protectedWeight -= node.weight;
+            node.region = Region.PROBATION;
+            probation.put(node.key, node);
+            probationWeight += node.weight;
+        }
+    }
+
+    /**
+     * Вытесняет сценарии, пока оценка занятой памяти превышает бюджет.
+     * Сценарии, вышедшие из окна, становятся кандидатами в основную область; кандидат
+     * остаётся, только если используется чаще, чем давно использованный сценарий основной области.
+     * Закреплённые сценарии не вытесняются, даже если из-за них бюджет превышен.
+     */
+    private void evict() {
+        Iterator<Node> windowIterator = window.values().iterator();
+        while (windowWeight > windowMax && windowIterator.hasNext()) {
+            Node candidate = windowIterator.next();
+            windowIterator.remove();
+            windowWeight -= candidate.weight;
+            candidate.region = Region.PROBATION;
+            probation.put(candidate.key, candidate);
+            probationWeight += candidate.weight;
+
+            while (overBudget() && nodes.containsKey(candidate.key)) {
+                Node victim = firstVictim(candidate);
+                if (candidate.pins == 0
+                        && (victim == null || sketch.frequency(candidate.key) <= sketch.frequency(victim.key))) {
+                    victim = candidate;
+                }
+                if (victim == null) {
+                    break; // Остальные сценарии закреплены открытыми окнами
+                }
+                evictNode(victim);
+            }
+        }
+        // Сценарий больше всего бюджета не удерживается даже в окне
+        while (overBudget()) {
+            Node victim = firstVictim(null);
+            if (victim == null) {
+                victim = firstUnpinned(window.values(), null);
+            }
+            if (victim == null) {
+                break;
+            }
+            evictNode(victim);
+        }
+    }
+
+    private boolean overBudget() {
+        return windowWeight + probationWeight + protectedWeight > maxWeight;
+    }
+
+    /**
+     * Возвращает давно использованный незакреплённый сценарий основной области, отличный от кандидата.
+     */
+    private Node firstVictim(Node candidate) {
+        Node victim = firstUnpinned(probation.values(), candidate);
+        return victim != null ? victim : firstUnpinned(protectedRegion.values(), candidate);
+    }
+
+    private static Node firstUnpinned(Iterable<Node> region, Node except) {
+        for (Node node : region) {
+            if (node != except && node.pins == 0) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private void evictNode(Node node) {
+        remove(node);
+        evictionCount++;
+        evictedWeight += node.weight;
+    }
+
+    private void remove(Node node) {
+        nodes.remove(node.key);
+        switch (node.region) {
+            case WINDOW:
+                window.remove(node.key);
+                windowWeight -= node.weight;
+                break;
+            case PROBATION:
+                probation.remove(node.key);
+                probationWeight -= node.weight;
+                break;
+            case PROTECTED:
+                protectedRegion.remove(node.key);
+                protectedWeight -= node.weight;
+                break;
+        }
+    }
+
+    /**
+     * Оценивает объём памяти, занимаемый данными сценария в куче.
+     * Оценка приблизительная: учитываются заголовки объектов, таблицы JSONObject и символы строк.
+     *
+     * @param value Данные сценария или их часть
+     * @return Оценка размера в байтах
+     */
+    public static long estimateSize(Object value) {
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            long size = 64; // JSONObject и его HashMap
+            for (String key : object.keySet()) {
+                size += 48 + estimateSize(key) + estimateSize(object.opt(key)); // Элемент таблицы и ключ
+            }
+            return size;
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            long size = 56; // JSONArray и его ArrayList
+            for (int i = 0; i < array.length(); i++) {
+                size += 8 + estimateSize(array.opt(i));
+            }
+            return size;
+        }
+        if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        }
+        return 16;
+    }
+
+    /** Число сценариев в кэше. */
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    /** Оценка памяти, занятой сценариями в кэше, байт. */
+    public synchronized long weightedSize() {
+        return windowWeight + probationWeight + protectedWeight;
+    }
+
+    /** Бюджет памяти, байт. */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /** Число обращений, обслуженных из кэша. */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /** Число загрузок сценариев, включая повторные после вытеснения. */
+    public synchronized long getLoadCount() {
+        return loadCount;
+    }
+
+    /** Число вытесненных сценариев. */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Записывает в лог статистику кэша.
+     */
+    public synchronized void logStats() {
+        int pinned = 0;
+        for (Node node : nodes.values()) {
+            if (node.pins > 0) {
+                pinned++;
+            }
+        }
+        logger.info("Кэш сценариев: {} сценариев (закреплено {}), {} из {} байт; попаданий {}, загрузок {}, вытеснено {} ({} байт).",
+                nodes.size(), pinned, weightedSize(), maxWeight, hitCount, loadCount, evictionCount, evictedWeight);
+    }
+
+    /**
+     * Приблизительный счётчик частоты обращений (count-min sketch с четырьмя строками).
+     * Счётчики периодически уменьшаются вдвое, чтобы старая популярность постепенно забывалась.
+     */
+    private static final class FrequencySketch {
+        private static final int ROWS = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+        private int[][] table = new int[ROWS][1024];
+        private int additions;
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            boolean added = false;
+            for (int row = 0; row < ROWS; row++) {
+                int index = indexOf(hash, row);
+                if (table[row][index] < MAX_COUNT) {
+                    table[row][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= 10 * table[0].length) {
+                reset();
+            }
+        }
+
+        /**
+         * Увеличивает таблицу, если сценариев в кэше стало больше её ширины. История частот при этом теряется.
+         */
+        void ensureCapacity(int entries) {
+            if (entries <= table[0].length) {
+                return;
+            }
+            int width = Integer.highestOneBit(entries - 1) << 1;
+            table = new int[ROWS][width];
+            additions = 0;
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < ROWS; row++) {
+                frequency = Math.min(frequency, table[row][indexOf(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private int indexOf(int hash, int row) {
+            int mixed = (hash ^ SEEDS[row]) * 0x45D9F3B;
+            mixed ^= mixed >>> 16;
+            return mixed & (table[row].length - 1);
+        }
+
+        private void reset() {
+            for (int[] row : table) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>>= 1;
+                }
+            }
+            additions /= 2;
+        }
+    }
+}
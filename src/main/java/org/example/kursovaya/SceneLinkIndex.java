@@ -0,0 +1,348 @@
+package org.example.kursovaya;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Обратный индекс переходов сценария: для каждой сцены хранит, из каких сцен в неё ведут выборы.
+ * Индекс строится при загрузке и обновляется при каждом изменении, сделанном через его методы,
+ * поэтому переименование, удаление и слияние сцен затрагивают только связанные с ними сцены,
+ * а не весь сценарий.
+ * Изменения выполняются под блокировкой на объекте данных сценария: под ней же
+ * фоновые потоки (например, {@link ScenePrefetcher}) читают сцены.
+ */
+public class SceneLinkIndex {
+    private final JSONObject scenarioData; // Данные сценария, которые изменяет индекс
+    // Сцена -> (сцена, из которой ведёт выбор -> число таких выборов)
+    private final Map<String, Map<String, Integer>> incoming = new HashMap<>();
+
+    /**
+     * Строит индекс по данным сценария.
+     *
+     * @param scenarioData Данные сценария в формате JSON
+     */
+    public SceneLinkIndex(JSONObject scenarioData) {
+        this.scenarioData = scenarioData;
+        rebuild();
+    }
+
+    /**
+     * Строит индекс заново, например после того как данные сценария были заменены на месте.
+     */
+    public void rebuild() {
+        synchronized (scenarioData) {
+            incoming.clear();
+            for (String key : scenarioData.keySet()) {
+                for (String next : targetsOf(key)) {
+                    link(key, next, 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Проверяет, занят ли ключ сцены.
+     *
+     * @param key Ключ сцены
+     * @return {@code true}, если сцена с таким ключом уже есть
+     */
+    public boolean hasScene(String key) {
+        return scenarioData.has(key);
+    }
+
+    /**
+     * Возвращает сцены, из которых ведут выборы в указанную сцену, с числом таких выборов.
+     *
+     * @param key Ключ сцены
+     * @return Неизменяемое отображение "сцена -> число выборов"
+     */
+    public Map<String, Integer> incoming(String key) {
+        Map<String, Integer> sources = incoming.get(key);
+        return sources == null ? Collections.emptyMap() : Collections.unmodifiableMap(sources);
+    }
+
+    /**
+     * Добавляет новую сцену.
+     *
+     * @param key Ключ сцены
+     * @param scene Данные сцены
+     * @throws IllegalArgumentException Если сцена с таким ключом уже есть
+     */
+    public void addScene(String key, JSONObject scene) {
+        synchronized (scenarioData) {
+            if (hasScene(key)) {
+                throw new IllegalArgumentException("Сцена с ключом " + key + " уже существует.");
+            }
+            scenarioData.put(key, scene);
+            for (String next : targetsOf(key)) {
+                link(key, next, 1);
+            }
+        }
+    }
+
+    /**
+     * Добавляет выбор в сцену.
+     *
+     * @param fromKey Ключ сцены, в которую добавляется выбор
+     * @param option Текст выбора
+     * @param nextKey Ключ сцены, в которую ведёт выбор
+     */
+    public void addChoice(String fromKey, String option, String nextKey) {
+        synchronized (scenarioData) {
+            JSONObject scene = scenarioData.getJSONObject(fromKey);
+            JSONArray choices = scene.optJSONArray("choices");
+            if (choices == null) {
+                choices = new JSONArray();
+                scene.put("choices", choices);
+            }
+            JSONObject choice = new JSONObject();
+            choice.put("option", option);
+            choice.put("next", nextKey);
+            choices.put(choice);
+            link(fromKey, nextKey, 1);
+        }
+    }
+
+    /**
+     * Переименовывает сцену и все ведущие в неё выборы.
+     *
+     * @param oldKey Текущий ключ сцены
+     * @param newKey Новый ключ сцены
+     * @throws IllegalArgumentException Если сцены нет, это сцена "start" или новый ключ уже занят
+     */
+    public void renameScene(String oldKey, String newKey) {
+        synchronized (scenarioData) {
+            requireNotStart(oldKey, "переименовать");
+            if (!hasScene(oldKey)) {
+                throw new IllegalArgumentException("Сцена с ключом " + oldKey + " не найдена.");
+            }
+            if (hasScene(newKey)) {
+                throw new IllegalArgumentException("Сцена с ключом " + newKey + " уже существует.");
+            }
+
+            // Исходящие выборы теперь ведут из сцены с новым ключом
+            for (String next : targetsOf(oldKey)) {
+                unlink(oldKey, next, 1);
+                link(newKey, next, 1);
+            }
+            scenarioData.put(newKey, scenarioData.remove(oldKey));
+
+            // Входящие выборы переводим на новый ключ
+            Map<String, Integer> sources = incoming.remove(oldKey);
+            if (sources != null) {
+                for (Map.Entry<String, Integer> source : sources.entrySet()) {
+                    String fromKey = source.getKey().equals(oldKey) ? newKey : source.getKey();
+                    retarget(fromKey, oldKey, newKey);
+                    link(fromKey, newKey, source.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Удаляет сцену вместе со сценами, в которые после этого нельзя попасть.
+     * Просматриваются только сцены, достижимые из удаляемой (не через "start"): из них остаются
+     * те, в которые можно попасть из сцен вне этой области, не проходя через удаляемую.
+     * Поэтому циклы внутри поддерева удаляются целиком, а сцена "start" не удаляется как потомок.
+     * Выборы, ведущие в удалённые сцены из оставшихся, тоже удаляются.
+     *
+     * @param rootKey Ключ корня удаляемого поддерева
+     * @return Ключи удалённых сцен
+     * @throws IllegalArgumentException Если сцены нет или это сцена "start"
+     */
+    public Set<String> deleteSubtree(String rootKey) {
+        synchronized (scenarioData) {
+            requireNotStart(rootKey, "удалить");
+            if (!hasScene(rootKey)) {
+                throw new IllegalArgumentException("Сцена с ключом " + rootKey + " не найдена.");
+            }
+
+            // Область, которую затрагивает удаление: всё, что достижимо из корня
+            Set<String> region = new LinkedHashSet<>();
+            ArrayDeque<String> queue = new ArrayDeque<>();
+            region.add(rootKey);
+            queue.add(rootKey);
+            while (!queue.isEmpty()) {
+                for (String next : targetsOf(queue.poll())) {
+                    if (!next.equals("start") && hasScene(next) && region.add(next)) {
+                        queue.add(next);
+                    }
+                }
+            }
+
+            // Остаются сцены области, достижимые из сцен вне её в обход корня
+            Set<String> kept = new HashSet<>();
+            for (String key : region) {
+                if (key.equals(rootKey)) {
+                    continue;
+                }
+                for (String fromKey : incoming(key).keySet()) {
+                    if (!region.contains(fromKey)) {
+                        kept.add(key);
+                        queue.add(key);
+                        break;
+                    }
+                }
+            }
+            while (!queue.isEmpty()) {
+                for (String next : targetsOf(queue.poll())) {
+                    if (region.contains(next) && !next.equals(rootKey) && kept.add(next)) {
+                        queue.add(next);
+                    }
+                }
+            }
+
+            Set<String> deleted = new LinkedHashSet<>(region);
+            deleted.removeAll(kept);
+            for (String key : deleted) {
+                // Убираем выборы, ведущие в удаляемую сцену из оставшихся
+                Map<String, Integer> sources = incoming.remove(key);
+                if (sources != null) {
+                    for (String fromKey : sources.keySet()) {
+                        if (!deleted.contains(fromKey)) {
+                            removeChoicesTo(fromKey, key);
+                        }
+                    }
+                }
+                // Убираем исходящие выборы удаляемой сцены из индекса оставшихся
+                for (String next : targetsOf(key)) {
+                    if (!deleted.contains(next)) {
+                        unlink(key, next, 1);
+                    }
+                }
+            }
+            for (String key : deleted) {
+                scenarioData.remove(key);
+            }
+            return deleted;
+        }
+    }
+
+    /**
+     * Сливает сцену-дубликат с основной: выборы, ведущие в дубликат, переводятся
+     * на основную сцену, а дубликат удаляется.
+     *
+     * @param keepKey Ключ сцены, которая остаётся
+     * @param duplicateKey Ключ удаляемого дубликата
+     * @throws IllegalArgumentException Если какой-либо из сцен нет, ключи совпадают или дубликат - сцена "start"
+     */
+    public void mergeScenes(String keepKey, String duplicateKey) {
+        synchronized (scenarioData) {
+            requireNotStart(duplicateKey, "слить с другой сценой");
+            if (!hasScene(keepKey) || !hasScene(duplicateKey)) {
+                throw new IllegalArgumentException("Сцены " + keepKey + " и " + duplicateKey + " должны существовать.");
+            }
+            if (keepKey.equals(duplicateKey)) {
+                throw new IllegalArgumentException("Нельзя слить сцену саму с собой.");
+            }
+
+            for (String next : targetsOf(duplicateKey)) {
+                unlink(duplicateKey, next, 1);
+            }
+            scenarioData.remove(duplicateKey);
+
+            Map<String, Integer> sources = incoming.remove(duplicateKey);
+            if (sources != null) {
+                for (Map.Entry<String, Integer> source : sources.entrySet()) {
+                    if (source.getKey().equals(duplicateKey)) {
+                        continue; // Выборы из самого дубликата удалены вместе с ним
+                    }
+                    retarget(source.getKey(), duplicateKey, keepKey);
+                    link(source.getKey(), keepKey, source.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Запрещает изменения, после которых в сценарии не останется начальной сцены "start".
+     */
+    private static void requireNotStart(String key, String action) {
+        if ("start".equals(key)) {
+            throw new IllegalArgumentException("Начальную сцену нельзя " + action + ".");
+        }
+    }
+
+    /**
+     * Возвращает ключи сцен, в которые ведут выборы сцены (с повторами).
+     */
+    private Iterable<String> targetsOf(String key) {
+        JSONObject scene = scenarioData.optJSONObject(key);
+        JSONArray choices = scene != null ? scene.optJSONArray("choices") : null;
+        if (choices == null) {
+            return Collections.emptyList();
+        }
+        List<String> targets = new ArrayList<>(choices.length());
+        for (int i = 0; i < choices.length(); i++) {
+            JSONObject choice = choices.optJSONObject(i);
+            if (choice != null && choice.has("next")) {
+                targets.add(choice.optString("next"));
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Меняет цель выборов сцены с одного ключа на другой.
+     */
+    private void retarget(String fromKey, String oldTarget, String newTarget) {
+        JSONObject scene = scenarioData.optJSONObject(fromKey);
+        JSONArray choices = scene != null ? scene.optJSONArray("choices") : null;
+        if (choices == null) {
+            return;
+        }
+        for (int i = 0; i < choices.length(); i++) {
+            JSONObject choice = choices.optJSONObject(i);
+            if (choice != null && oldTarget.equals(choice.optString("next", null))) {
+                choice.put("next", newTarget);
+            }
+        }
+    }
+
+    /**
+     * Удаляет из сцены выборы, ведущие в указанную сцену.
+     */
+    private void removeChoicesTo(String fromKey, String target) {
+        JSONObject scene = scenarioData.optJSONObject(fromKey);
+        JSONArray choices = scene != null ? scene.optJSONArray("choices") : null;
+        if (choices == null) {
+            return;
+        }
+        for (int i = choices.length() - 1; i >= 0; i--) {
+            JSONObject choice = choices.optJSONObject(i);
+            if (choice != null && target.equals(choice.optString("next", null))) {
+                choices.remove(i);
+            }
+        }
+    }
+
+    private void link(String fromKey, String toKey, int count) {
+        incoming.computeIfAbsent(toKey, k -> new HashMap<>()).merge(fromKey, count, Integer::sum);
+    }
+
+    private void unlink(String fromKey, String toKey, int count) {
+        Map<String, Integer> sources = incoming.get(toKey);
+        if (sources == null) {
+            return;
+        }
+        int left = sources.getOrDefault(fromKey, 0) - count;
+        if (left > 0) {
+            sources.put(fromKey, left);
+        } else {
+            sources.remove(fromKey);
+            if (sources.isEmpty()) {
+                incoming.remove(toKey);
+            }
+        }
+    }
+}
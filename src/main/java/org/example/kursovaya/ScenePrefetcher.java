@@ -0,0 +1,425 @@
+package org.example.kursovaya;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Предварительная загрузка сцен, в которые игрок может перейти из текущей.
+ * Пока игрок читает сцену, цели её выборов загружаются и разбираются в фоновом потоке.
+ * Порядок загрузки определяется вероятностью перехода, оценённой по ранее сделанным выборам.
+ * Когда загрузка сцены завершается, фоновый поток сам планирует загрузку её переходов,
+ * пока не будет достигнута заданная глубина.
+ * Публичные методы класса вызываются из потока JavaFX. Фоновые потоки читают сцены под блокировкой
+ * на объекте данных сценария, под которой {@link SceneLinkIndex} вносит изменения.
+ */
+public class ScenePrefetcher {
+    private static final Logger logger = LogManager.getLogger(ScenePrefetcher.class); // Логгер для записи действий
+    /** Глубина просмотра вперёд по умолчанию. */
+    public static final int DEFAULT_DEPTH = 2;
+    /** Наибольшее число сцен, загружаемых заранее после одного перехода. */
+    private static final int MAX_PREFETCHED = 32;
+
+    private final Supplier<JSONObject> scenarioSource; // Текущие данные сценария
+    private final int depth;
+    // Общий для всех окон пул, чтобы каждое открытие сценария не создавало своих потоков.
+    // Очередь с приоритетом: первыми загружаются сцены с наибольшей вероятностью пути до них
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, "scene-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Статистика выборов по сценариям, общая для всех окон за время работы приложения
+    private static final Map<String, Map<String, Map<String, Integer>>> SHARED_TRANSITIONS = new ConcurrentHashMap<>();
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>(); // Загруженные и загружаемые сцены
+    private final Map<String, Map<String, Integer>> transitions; // Сколько раз выбирался переход
+    private final AtomicInteger generation = new AtomicInteger(); // Номер текущего плана; меняется при переходе
+    private final AtomicInteger scheduled = new AtomicInteger();  // Сцен, запущенных по текущему плану
+    private long hits;
+    private long misses;
+    private long wasted;
+
+    /**
+     * Разобранная сцена, готовая к отображению.
+     */
+    public static final class PreparedScene {
+        private final String text;
+        private final List<String> options;
+        private final List<String> nextKeys;
+
+        PreparedScene(String text, List<String> options, List<String> nextKeys) {
+            this.text = text;
+            this.options = options;
+            this.nextKeys = nextKeys;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public List<String> getOptions() {
+            return options;
+        }
+
+        public List<String> getNextKeys() {
+            return nextKeys;
+        }
+    }
+
+    /**
+     * Загрузка одной сцены и признак того, что она была показана.
+     */
+    private static final class Entry {
+        private final Future<PreparedScene> future;
+        private boolean used;
+
+        Entry(Future<PreparedScene> future) {
+            this.future = future;
+        }
+    }
+
+    /**
+     * Конструктор с глубиной просмотра из системного свойства {@code kursovaya.prefetch.depth}.
+     * Статистика выборов общая для всех окон сценария и сохраняется после закрытия окна,
+     * но не между запусками приложения.
+     *
+     * @param scenarioSource Функция, возвращающая текущие данные сценария или {@code null}, если их нет
+     * @param scenarioName Название сценария, по которому накапливается статистика выборов
+     */
+    public ScenePrefetcher(Supplier<JSONObject> scenarioSource, String scenarioName) {
+        this(scenarioSource, Integer.getInteger("kursovaya.prefetch.depth", DEFAULT_DEPTH),
+                SHARED_TRANSITIONS.computeIfAbsent(scenarioName, k -> new ConcurrentHashMap<>()));
+    }
+
+    /**
+     * Конструктор предзагрузчика со своей статистикой выборов.
+     *
+     * @param scenarioSource Функция, возвращающая текущие данные сценария или {@code null}, если их нет
+     * @param depth Сколько переходов вперёд загружать заранее
+     */
+    public ScenePrefetcher(Supplier<JSONObject> scenarioSource, int depth) {
+        this(scenarioSource, depth, new ConcurrentHashMap<>());
+    }
+
+    private ScenePrefetcher(Supplier<JSONObject> scenarioSource, int depth,
+                            Map<String, Map<String, Integer>> transitions) {
+        this.scenarioSource = scenarioSource;
+        this.depth = Math.max(0, depth);
+        this.transitions = transitions;
+    }
+
+    /**
+     * Возвращает разобранную сцену: из предзагрузки, если она есть, иначе загружает сразу.
+     *
+     * @param key Ключ сцены
+     * @return Сцена или {@code null}, если сцены с таким ключом нет
+     */
+    public PreparedScene get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.future.isCancelled()) {
+            try {
+                PreparedScene scene = entry.future.get();
+                entry.used = true;
+                hits++;
+                return scene;
+            } catch (Exception e) {
+                logger.warn("Предзагрузка сцены {} завершилась ошибкой: {}", key, e.getMessage());
+            }
+        }
+        misses++;
+        PreparedScene scene = decode(key);
+        Entry loaded = new Entry(CompletableFuture.completedFuture(scene));
+        loaded.used = true;
+        entries.put(key, loaded);
+        return scene;
+    }
+
+    /**
+     * Запоминает сделанный игроком выбор для оценки популярности переходов.
+     *
+     * @param fromKey Ключ сцены, в которой сделан выбор
+     * @param nextKey Ключ выбранной сцены
+     */
+    public void recordChoice(String fromKey, String nextKey) {
+        transitions.computeIfAbsent(fromKey, k -> new ConcurrentHashMap<>()).merge(nextKey, 1, Integer::sum);
+    }
+
+    /**
+     * Сообщает, что сцена показана: запускает загрузку наиболее вероятных следующих сцен
+     * и отменяет загрузку веток, в которые из этой сцены уже не попасть.
+     * Переходы уже загруженных сцен планируются сразу, остальные - по завершении их загрузки.
+     *
+     * @param key Ключ показанной сцены
+     * @param scene Показанная сцена
+     */
+    public void onSceneShown(String key, PreparedScene scene) {
+        int current = generation.incrementAndGet(); // Загрузки прежнего плана больше не планируют переходы
+        List<Candidate> order = planCandidates(key, scene);
+        Set<String> wanted = new HashSet<>();
+        wanted.add(key);
+        for (Candidate candidate : order) {
+            wanted.add(candidate.key);
+        }
+
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (!wanted.contains(entry.getKey())) {
+                if (!entry.getValue().used) {
+                    wasted++;
+                    entry.getValue().future.cancel(true);
+                }
+                iterator.remove();
+            }
+        }
+
+        scheduled.set(0);
+        for (Candidate candidate : order) {
+            schedule(candidate, current);
+        }
+    }
+
+    /**
+     * Запускает загрузку сцены, если она ещё не загружается. После разбора сцены
+     * загрузка планирует её переходы, пока не достигнута глубина просмотра; это делается
+     * до завершения загрузки, поэтому к моменту получения сцены её переходы уже запущены.
+     */
+    private void schedule(Candidate candidate, int planGeneration) {
+        if (planGeneration != generation.get() || entries.containsKey(candidate.key)
+                || scheduled.incrementAndGet() > MAX_PREFETCHED) {
+            return;
+        }
+        PrefetchTask task = new PrefetchTask(candidate.probability, () -> {
+            PreparedScene scene = decode(candidate.key);
+            if (scene != null && candidate.level < depth && planGeneration == generation.get()) {
+                List<Candidate> children = new ArrayList<>();
+                enqueueChildren(children, candidate.key, scene, candidate.probability, candidate.level + 1);
+                for (Candidate child : children) {
+                    schedule(child, planGeneration);
+                }
+            }
+            return scene;
+        });
+        Entry entry = new Entry(task);
+        if (entries.putIfAbsent(candidate.key, entry) == null) {
+            if (planGeneration != generation.get()) {
+                entries.remove(candidate.key, entry); // План сменился, пока загрузка добавлялась
+                return;
+            }
+            EXECUTOR.execute(task);
+        }
+    }
+
+    /**
+     * Составляет список сцен для предзагрузки после показа сцены
+     * в порядке убывания вероятности пути до них.
+     *
+     * @param key Ключ показанной сцены
+     * @param scene Показанная сцена
+     * @return Ключи сцен для загрузки, без ключа показанной сцены
+     */
+    List<String> plan(String key, PreparedScene scene) {
+        List<String> order = new ArrayList<>();
+        for (Candidate candidate : planCandidates(key, scene)) {
+            order.add(candidate.key);
+        }
+        return order;
+    }
+
+    private List<Candidate> planCandidates(String key, PreparedScene scene) {
+        Set<String> seen = new HashSet<>();
+        seen.add(key);
+        PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        if (depth > 0 && scene != null) {
+            enqueueChildren(queue, key, scene, 1.0, 1);
+        }
+        List<Candidate> order = new ArrayList<>();
+        while (!queue.isEmpty() && order.size() < MAX_PREFETCHED) {
+            Candidate candidate = queue.poll();
+            if (!seen.add(candidate.key)) {
+                continue;
+            }
+            order.add(candidate);
+            if (candidate.level < depth) {
+                PreparedScene known = peek(candidate.key);
+                if (known != null) {
+                    enqueueChildren(queue, candidate.key, known, candidate.probability, candidate.level + 1);
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Добавляет в очередь переходы из сцены с вероятностями, оценёнными по статистике выборов
+     * (со сглаживанием, чтобы ни разу не выбранные варианты тоже загружались).
+     */
+    private void enqueueChildren(Collection<Candidate> queue, String fromKey, PreparedScene scene,
+                                 double probability, int level) {
+        List<String> nextKeys = scene.getNextKeys();
+        if (nextKeys.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> counts = transitions.getOrDefault(fromKey, Collections.emptyMap());
+        int total = 0;
+        for (String next : nextKeys) {
+            total += counts.getOrDefault(next, 0);
+        }
+        for (String next : nextKeys) {
+            double share = (counts.getOrDefault(next, 0) + 1.0) / (total + nextKeys.size());
+            queue.add(new Candidate(next, probability * share, level));
+        }
+    }
+
+    /**
+     * Возвращает уже загруженную сцену, не дожидаясь незавершённой загрузки.
+     */
+    private PreparedScene peek(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.future.isDone() || entry.future.isCancelled()) {
+            return null;
+        }
+        try {
+            return entry.future.get();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Загружает и разбирает сцену. В фоновом потоке сцена копируется под блокировкой
+     * на данных сценария, чтобы не читать её одновременно с изменением.
+     */
+    private PreparedScene decode(String key) {
+        JSONObject scenarioData = scenarioSource.get();
+        if (scenarioData == null) {
+            return null;
+        }
+        synchronized (scenarioData) {
+            if (Thread.currentThread().isInterrupted()) {
+                return null; // Загрузка отменена, пока ждала блокировку
+            }
+            JSONObject node = scenarioData.optJSONObject(key);
+            if (node == null) {
+                return null;
+            }
+            List<String> options = new ArrayList<>();
+            List<String> nextKeys = new ArrayList<>();
+            JSONArray choices = node.optJSONArray("choices");
+            if (choices != null) {
+                for (int i = 0; i < choices.length(); i++) {
+                    JSONObject choice = choices.optJSONObject(i);
+                    if (choice != null) {
+                        options.add(choice.optString("option", "Без названия"));
+                        nextKeys.add(choice.optString("next", "end"));
+                    }
+                }
+            }
+            return new PreparedScene(node.optString("text", "Текст сцены отсутствует."),
+                    Collections.unmodifiableList(options), Collections.unmodifiableList(nextKeys));
+        }
+    }
+
+    /**
+     * Отменяет все загрузки и забывает загруженные сцены, например после изменения сценария.
+     * Статистика выборов сохраняется; так и не показанные загрузки считаются напрасными.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        for (Entry entry : entries.values()) {
+            if (!entry.used) {
+                wasted++;
+            }
+            entry.future.cancel(true);
+        }
+        entries.clear();
+    }
+
+    /**
+     * Записывает в лог статистику предзагрузки.
+     */
+    public void logStats() {
+        logger.info("Предзагрузка сцен: попаданий {}, промахов {}, напрасных загрузок {}.", hits, misses, wasted);
+    }
+
+    /** Число сцен, взятых из предзагрузки. */
+    public long getHits() {
+        return hits;
+    }
+
+    /** Число сцен, загруженных в момент показа. */
+    public long getMisses() {
+        return misses;
+    }
+
+    /** Число предзагруженных, но так и не показанных сцен. */
+    public long getWasted() {
+        return wasted;
+    }
+
+    /** Доля сцен, взятых из предзагрузки. */
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Загрузка сцены в очереди пула, упорядоченная по вероятности пути до сцены.
+     */
+    private static final class PrefetchTask extends FutureTask<PreparedScene> implements Comparable<PrefetchTask> {
+        private final double probability;
+
+        PrefetchTask(double probability, Callable<PreparedScene> callable) {
+            super(callable);
+            this.probability = probability;
+        }
+
+        @Override
+        public int compareTo(PrefetchTask other) {
+            return Double.compare(other.probability, probability);
+        }
+    }
+
+    /**
+     * Кандидат на предзагрузку с вероятностью пути до него.
+     */
+    private static final class Candidate implements Comparable<Candidate> {
+        private final String key;
+        private final double probability;
+        private final int level;
+
+        Candidate(String key, double probability, int level) {
+            this.key = key;
+            this.probability = probability;
+            this.level = level;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Double.compare(other.probability, probability);
+        }
+    }
+}
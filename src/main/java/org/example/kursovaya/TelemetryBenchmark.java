@@ -0,0 +1,134 @@
+package org.example.kursovaya;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Замер скорости телеметрии: стоимость {@link TelemetryRecorder#record} на один выбор
+ * и время анализа {@link TelemetryQuery#run} по синтетическим сегментам.
+ * Сегменты для анализа пишутся напрямую, минуя кольцевой буфер, и удаляются после замера.
+ */
+public class TelemetryBenchmark {
+    private static final int SCENARIOS = 10;
+    private static final int SCENES = 500;   // Сцен в каждом сценарии
+    private static final int CHOICES = 4;    // Вариантов в каждой сцене
+
+    /**
+     * Точка входа замера.
+     *
+     * @param args Число событий для анализа (по умолчанию 20 000 000), число сессий в них
+     *             (по умолчанию 1 000 000) и число событий для замера записи (по умолчанию 5 000 000)
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long queryEvents = args.length > 0 ? Long.parseLong(args[0]) : 20_000_000L;
+        long sessions = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000L;
+        long recordEvents = args.length > 2 ? Long.parseLong(args[2]) : 5_000_000L;
+
+        File directory = Files.createTempDirectory("telemetry-benchmark").toFile();
+        try {
+            benchmarkRecord(new File(directory, "record"), recordEvents);
+            benchmarkQuery(new File(directory, "query"), queryEvents, sessions);
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    /**
+     * Замеряет запись событий одним потоком. События пишутся порциями в половину буфера,
+     * после каждой порции замер ждёт, пока поток сброса их заберёт, чтобы не мерить отбрасывание.
+     */
+    private static void benchmarkRecord(File directory, long events) throws InterruptedException {
+        TelemetryRecorder recorder = new TelemetryRecorder(directory);
+        String[] scenes = new String[SCENES];
+        for (int i = 0; i < SCENES; i++) {
+            scenes[i] = "scene" + i;
+        }
+        int batch = TelemetryRecorder.CAPACITY / 2;
+        long elapsed = 0;
+        long recorded = 0;
+        long session = TelemetryRecorder.newSessionId();
+        while (recorded < events) {
+            long start = System.nanoTime();
+            for (int i = 0; i < batch; i++) {
+                int scene = (int) ((recorded + i) % SCENES);
+                recorder.record(session, "benchmark", scenes[scene], scenes[(scene + 1) % SCENES], i % CHOICES);
+            }
+            elapsed += System.nanoTime() - start;
+            recorded += batch;
+            while (recorder.backlog() > 0) {
+                Thread.sleep(1);
+            }
+        }
+        recorder.close();
+        System.out.printf("Запись: %d событий, %.1f нс на событие, отброшено %d%n",
+                recorded, (double) elapsed / recorded, recorder.getDroppedCount());
+    }
+
+    /**
+     * Пишет синтетические сегменты и замеряет их анализ. Каждая сессия проходит
+     * подряд несколько сцен одного сценария, как при обычной игре.
+     */
+    private static void benchmarkQuery(File directory, long events, long sessions) throws IOException {
+        Map<Integer, String> dictionary = new TreeMap<>();
+        for (int i = 0; i < SCENARIOS; i++) {
+            dictionary.put(i, "scenario" + i);
+        }
+        for (int i = 0; i < SCENES; i++) {
+            dictionary.put(SCENARIOS + i, "scene" + i);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long eventsPerSession = Math.max(1, events / sessions);
+        long timestamp = System.currentTimeMillis();
+        long written = 0;
+        int segment = 0;
+        while (written < events) {
+            int rows = (int) Math.min(TelemetryRecorder.SEGMENT_ROWS, events - written);
+            long[][] columns = new long[TelemetryRecorder.COLUMN_COUNT][rows];
+            int scene = 0;
+            for (int i = 0; i < rows; i++) {
+                long index = written + i;
+                int step = (int) (index % eventsPerSession);
+                if (step == 0) {
+                    scene = 0;
+                }
+                int choice = random.nextInt(CHOICES);
+                int next = Math.min(SCENES - 1, scene * CHOICES + choice + 1);
+                columns[0][i] = timestamp + index;
+                columns[1][i] = (index / eventsPerSession) * 0x9E3779B97F4A7C15L;
+                columns[2][i] = (index / eventsPerSession) % SCENARIOS;
+                columns[3][i] = SCENARIOS + scene;
+                columns[4][i] = SCENARIOS + next;
+                columns[5][i] = choice;
+                scene = next;
+            }
+            TelemetryRecorder.writeSegmentFile(directory, "segment-benchmark-" + segment++, rows, dictionary, columns);
+            written += rows;
+        }
+
+        // Первый запуск включает прогрев JIT, поэтому анализ повторяется несколько раз
+        System.out.printf("Анализ: %d событий, %d сегментов, куча не больше %d МБ%n",
+                written, segment, Runtime.getRuntime().maxMemory() / (1024 * 1024));
+        for (int run = 1; run <= 3; run++) {
+            long start = System.nanoTime();
+            TelemetryQuery.Report report = TelemetryQuery.run(directory, null);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("  запуск %d: %d сессий за %d мс (%.1f млн событий в секунду)%n",
+                    run, report.getSessionCount(), elapsed / 1_000_000, report.getEvents() * 1000.0 / elapsed);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
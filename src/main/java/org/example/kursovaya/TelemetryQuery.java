@@ -0,0 +1,693 @@
+package org.example.kursovaya;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Утилита для анализа телеметрии, записанной {@link TelemetryRecorder}.
+ * Считает для каждой сцены, сколько сессий до неё дошло, сколько бросило игру на ней
+ * и сколько дошло до неё как до концовки, а также сколько раз был выбран каждый вариант
+ * (тепловая карта выборов). Сегменты обрабатываются параллельно.
+ * Число дошедших до сцены сессий оценивается вероятностным счётчиком ограниченного размера;
+ * для отсева хранится только последнее событие каждой сессии в плоских массивах.
+ * С ключом {@code --compact} сливает мелкие сегменты в крупные, чтобы не открывать тысячи файлов.
+ */
+public class TelemetryQuery {
+    // Номера колонок в сегменте
+    private static final int TIMESTAMP = 0;
+    private static final int SESSION = 1;
+    private static final int SCENARIO = 2;
+    private static final int SCENE = 3;
+    private static final int NEXT_SCENE = 4;
+    private static final int CHOICE = 5;
+
+    /**
+     * Точка входа утилиты.
+     *
+     * @param args Папка с сегментами телеметрии и, необязательно, имя сценария для отбора;
+     *             либо {@code --compact} и папка с сегментами
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--compact")) {
+            File directory = new File(args.length > 1 ? args[1] : "telemetry");
+            int merged = compact(directory);
+            System.out.println("Слито мелких сегментов: " + merged);
+            return;
+        }
+        File directory = new File(args.length > 0 ? args[0] : "telemetry");
+        String scenario = args.length > 1 ? args[1] : null;
+
+        long startTime = System.nanoTime();
+        Report report = run(directory, scenario);
+        long elapsed = (System.nanoTime() - startTime) / 1_000_000;
+
+        System.out.println("Событий: " + report.events + ", сессий: " + report.sessionCount + ", время: " + elapsed + " мс");
+        System.out.println();
+        System.out.println("Отсев по сценам (сценарий / сцена: дошли, бросили, доля бросивших, закончили на концовке):");
+        new TreeMap<>(report.reached).forEach((scene, reached) -> {
+            long abandoned = report.abandoned.getOrDefault(scene, 0L);
+            long completed = report.completed.getOrDefault(scene, 0L);
+            System.out.printf("  %s: %d, %d, %.1f%%, %d%n", scene, reached, abandoned, 100.0 * abandoned / reached, completed);
+        });
+        System.out.println();
+        System.out.println("Тепловая карта выборов (сценарий / сцена: число выборов каждого варианта):");
+        new TreeMap<>(report.heatmap).forEach((scene, counts) -> System.out.println("  " + scene + ": " + Arrays.toString(counts)));
+    }
+
+    /**
+     * Результат анализа. Ключи имеют вид "сценарий / сцена", все счётчики сцен считаются в сессиях.
+     */
+    public static final class Report {
+        private long events;
+        private long sessionCount;
+        private final Map<String, Long> reached = new HashMap<>();
+        private final Map<String, Long> abandoned = new HashMap<>();
+        private final Map<String, Long> completed = new HashMap<>();
+        private final Map<String, long[]> heatmap = new HashMap<>();
+
+        public long getEvents() {
+            return events;
+        }
+
+        public long getSessionCount() {
+            return sessionCount;
+        }
+
+        /**
+         * Сколько разных сессий побывало в сцене (повторные заходы одной сессии не считаются).
+         * Точное значение до {@value SessionCounter#SPARSE_LIMIT} сессий, дальше оценка с погрешностью около 1,6%.
+         */
+        public Map<String, Long> getReached() {
+            return reached;
+        }
+
+        /** Сколько сессий бросило игру в сцене: последним событием был переход в неё, а не концовка. */
+        public Map<String, Long> getAbandoned() {
+            return abandoned;
+        }
+
+        /** Сколько сессий закончилось в сцене, дойдя до неё как до концовки (сцены без выборов). */
+        public Map<String, Long> getCompleted() {
+            return completed;
+        }
+
+        /** Сколько раз выбирался каждый вариант сцены (по номеру варианта). */
+        public Map<String, long[]> getHeatmap() {
+            return heatmap;
+        }
+    }
+
+    /**
+     * Накопленный результат по части сегментов. Сцены нумеруются внутри части,
+     * счётчики хранятся по номерам сцен. Изменяется на месте, поэтому слияние стоит
+     * пропорционально присоединяемой части, а не обеим.
+     */
+    private static final class Partial {
+        private long events;
+        private final Map<String, Integer> sceneIds = new HashMap<>();
+        private final List<String> sceneNames = new ArrayList<>();
+        private final List<long[]> heatmap = new ArrayList<>();          // По номеру сцены; null, если выборов не было
+        private final List<SessionCounter> reached = new ArrayList<>();  // По номеру сцены
+        private final LastEvents lastEvents = new LastEvents();
+
+        /**
+         * Возвращает номер сцены, добавляя её при необходимости.
+         */
+        int sceneId(String name) {
+            Integer id = sceneIds.get(name);
+            if (id == null) {
+                id = sceneNames.size();
+                sceneIds.put(name, id);
+                sceneNames.add(name);
+                heatmap.add(null);
+                reached.add(new SessionCounter());
+            }
+            return id;
+        }
+
+        void countChoice(int scene, int choice) {
+            long[] counts = heatmap.get(scene);
+            if (counts == null || counts.length <= choice) {
+                counts = counts == null ? new long[choice + 1] : Arrays.copyOf(counts, choice + 1);
+                heatmap.set(scene, counts);
+            }
+            counts[choice]++;
+        }
+
+        void merge(Partial other) {
+            events += other.events;
+            int[] remap = new int[other.sceneNames.size()];
+            for (int i = 0; i < remap.length; i++) {
+                remap[i] = sceneId(other.sceneNames.get(i));
+                long[] counts = other.heatmap.get(i);
+                if (counts != null) {
+                    long[] own = heatmap.get(remap[i]);
+                    heatmap.set(remap[i], own == null ? counts : addInto(own, counts));
+                }
+                reached.set(remap[i], SessionCounter.union(reached.get(remap[i]), other.reached.get(i)));
+            }
+            lastEvents.mergeFrom(other.lastEvents, remap);
+        }
+    }
+
+    /**
+     * Содержимое сегмента.
+     */
+    private static final class Segment {
+        private final int rows;
+        private final Map<Integer, String> dictionary;
+        private final long[][] columns;
+
+        Segment(int rows, Map<Integer, String> dictionary, long[][] columns) {
+            this.rows = rows;
+            this.dictionary = dictionary;
+            this.columns = columns;
+        }
+    }
+
+    /**
+     * Анализирует все сегменты в папке.
+     *
+     * @param directory Папка с сегментами
+     * @param scenario Имя сценария для отбора или {@code null} для всех сценариев
+     * @return Результат анализа
+     */
+    public static Report run(File directory, String scenario) throws IOException {
+        File[] files = listSegments(directory);
+
+        Partial total;
+        try {
+            total = Arrays.stream(files).parallel().collect(Partial::new, (partial, file) -> {
+                try {
+                    accumulate(readSegment(file), scenario, partial);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, Partial::merge);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Report report = new Report();
+        report.events = total.events;
+        report.sessionCount = total.lastEvents.size();
+        long[] abandoned = new long[total.sceneNames.size()];
+        long[] completed = new long[total.sceneNames.size()];
+        total.lastEvents.countLast(abandoned, completed);
+        for (int scene = 0; scene < total.sceneNames.size(); scene++) {
+            String name = total.sceneNames.get(scene);
+            long reached = total.reached.get(scene).size();
+            if (reached > 0) {
+                report.reached.put(name, reached);
+            }
+            if (total.heatmap.get(scene) != null) {
+                report.heatmap.put(name, total.heatmap.get(scene));
+            }
+            if (abandoned[scene] > 0) {
+                report.abandoned.put(name, abandoned[scene]);
+            }
+            if (completed[scene] > 0) {
+                report.completed.put(name, completed[scene]);
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Сливает сегменты, в которых меньше строк, чем записывает {@link TelemetryRecorder} за раз
+     * при полном буфере, в сегменты примерно такого размера. Сначала записывается новый сегмент,
+     * затем удаляются исходные, поэтому прерванное слияние оставляет повторы, но не теряет событий.
+     *
+     * @param directory Папка с сегментами
+     * @return Число слитых исходных сегментов
+     */
+    public static int compact(File directory) throws IOException {
+        File[] files = listSegments(directory);
+        Arrays.sort(files, Comparator.comparing(File::getName));
+
+        int merged = 0;
+        List<File> group = new ArrayList<>();
+        int groupRows = 0;
+        for (File file : files) {
+            int rows = readRowCount(file);
+            if (rows >= TelemetryRecorder.SEGMENT_ROWS) {
+                continue;
+            }
+            if (groupRows + rows > TelemetryRecorder.SEGMENT_ROWS) {
+                merged += mergeGroup(directory, group, merged);
+                group.clear();
+                groupRows = 0;
+            }
+            group.add(file);
+            groupRows += rows;
+        }
+        return merged + mergeGroup(directory, group, merged);
+    }
+
+    /**
+     * Записывает группу сегментов одним сегментом с общим словарём и удаляет исходные.
+     *
+     * @return Число слитых сегментов
+     */
+    private static int mergeGroup(File directory, List<File> group, int index) throws IOException {
+        if (group.size() < 2) {
+            return 0;
+        }
+        List<Segment> segments = new ArrayList<>();
+        int rows = 0;
+        for (File file : group) {
+            Segment segment = readSegment(file);
+            segments.add(segment);
+            rows += segment.rows;
+        }
+
+        Map<String, Integer> ids = new HashMap<>();
+        Map<Integer, String> dictionary = new TreeMap<>();
+        long[][] columns = new long[TelemetryRecorder.COLUMN_COUNT][rows];
+        int offset = 0;
+        for (Segment segment : segments) {
+            for (int column = 0; column < TelemetryRecorder.COLUMN_COUNT; column++) {
+                long[] values = segment.columns[column];
+                boolean dictionaryColumn = column == SCENARIO || column == SCENE || column == NEXT_SCENE;
+                for (int i = 0; i < segment.rows; i++) {
+                    long value = values[i];
+                    if (dictionaryColumn) {
+                        String name = segment.dictionary.get((int) value);
+                        value = ids.computeIfAbsent(name, n -> {
+                            int id = ids.size();
+                            dictionary.put(id, n);
+                            return id;
+                        });
+                    }
+                    columns[column][offset + i] = value;
+                }
+            }
+            offset += segment.rows;
+        }
+
+        String name = "segment-" + System.currentTimeMillis() + "-compacted-" + index;
+        TelemetryRecorder.writeSegmentFile(directory, name, rows, dictionary, columns);
+        for (File file : group) {
+            Files.delete(file.toPath());
+        }
+        return group.size();
+    }
+
+    /**
+     * Возвращает файлы сегментов в папке.
+     */
+    private static File[] listSegments(File directory) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(TelemetryRecorder.SEGMENT_EXTENSION));
+        if (files == null) {
+            throw new IOException("Папка телеметрии не найдена: " + directory.getAbsolutePath());
+        }
+        return files;
+    }
+
+    /**
+     * Читает из заголовка сегмента число строк.
+     */
+    private static int readRowCount(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != TelemetryRecorder.SEGMENT_MAGIC) {
+                throw new IOException("Файл не является сегментом телеметрии: " + file.getAbsolutePath());
+            }
+            return in.readInt();
+        }
+    }
+
+    /**
+     * Читает сегмент целиком.
+     */
+    private static Segment readSegment(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != TelemetryRecorder.SEGMENT_MAGIC) {
+                throw new IOException("Файл не является сегментом телеметрии: " + file.getAbsolutePath());
+            }
+            int rows = in.readInt();
+            int dictionarySize = in.readInt();
+            Map<Integer, String> dictionary = new HashMap<>(dictionarySize * 2);
+            for (int i = 0; i < dictionarySize; i++) {
+                int id = in.readInt();
+                dictionary.put(id, in.readUTF());
+            }
+
+            long[][] columns = new long[TelemetryRecorder.COLUMN_COUNT][];
+            for (int column = 0; column < TelemetryRecorder.COLUMN_COUNT; column++) {
+                columns[column] = readColumn(in, rows);
+            }
+            return new Segment(rows, dictionary, columns);
+        }
+    }
+
+    /**
+     * Добавляет события сегмента к накопленному результату.
+     */
+    private static void accumulate(Segment segment, String scenarioFilter, Partial partial) {
+        Map<Integer, String> dictionary = segment.dictionary;
+        long[][] columns = segment.columns;
+        Integer scenarioId = null;
+        if (scenarioFilter != null) {
+            for (Map.Entry<Integer, String> entry : dictionary.entrySet()) {
+                if (entry.getValue().equals(scenarioFilter)) {
+                    scenarioId = entry.getKey();
+                }
+            }
+            if (scenarioId == null) {
+                return; // В сегменте нет событий этого сценария
+            }
+        }
+
+        // Номер сцены части по номерам сценария и сцены из словаря сегмента (-1, пока не встречалась);
+        // строки строятся один раз на сцену, а не на каждое событие
+        int dictionaryEnd = 0;
+        for (int id : dictionary.keySet()) {
+            dictionaryEnd = Math.max(dictionaryEnd, id + 1);
+        }
+        int[][] sceneIds = new int[dictionaryEnd][];
+        for (int i = 0; i < segment.rows; i++) {
+            int scenario = (int) columns[SCENARIO][i];
+            if (scenarioId != null && scenario != scenarioId) {
+                continue;
+            }
+            partial.events++;
+            long session = columns[SESSION][i];
+            int choice = (int) columns[CHOICE][i];
+            int[] scenarioScenes = sceneIds[scenario];
+            if (scenarioScenes == null) {
+                scenarioScenes = new int[dictionaryEnd];
+                Arrays.fill(scenarioScenes, -1);
+                sceneIds[scenario] = scenarioScenes;
+            }
+            int next = partialScene(partial, dictionary, scenarioScenes, scenario, (int) columns[NEXT_SCENE][i]);
+
+            if (choice >= 0) {
+                int from = partialScene(partial, dictionary, scenarioScenes, scenario, (int) columns[SCENE][i]);
+                partial.countChoice(from, choice);
+            }
+            partial.reached.get(next).add(session);
+            partial.lastEvents.update(session, columns[TIMESTAMP][i], next, choice == TelemetryRecorder.CHOICE_ENDING);
+        }
+    }
+
+    /**
+     * Возвращает номер сцены в части, добавляя сцену при первой встрече в сегменте.
+     */
+    private static int partialScene(Partial partial, Map<Integer, String> dictionary, int[] scenarioScenes,
+                                    int scenario, int scene) {
+        int id = scenarioScenes[scene];
+        if (id < 0) {
+            id = partial.sceneId(dictionary.get(scenario) + " / " + dictionary.get(scene));
+            scenarioScenes[scene] = id;
+        }
+        return id;
+    }
+
+    /**
+     * Читает колонку: длина сжатого блока, затем разности значений в формате varint.
+     * Блок распаковывается целиком и разбирается из массива, а не побайтовым чтением из потока.
+     */
+    private static long[] readColumn(DataInputStream in, int rows) throws IOException {
+        byte[] compressed = new byte[in.readInt()];
+        in.readFully(compressed);
+        byte[] bytes;
+        try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            bytes = gzip.readAllBytes();
+        }
+        long[] values = new long[rows];
+        long previous = 0;
+        int position = 0;
+        for (int i = 0; i < rows; i++) {
+            long encoded = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (position == bytes.length) {
+                    throw new IOException("Неожиданный конец колонки телеметрии.");
+                }
+                if (shift >= 64) {
+                    throw new IOException("Повреждённое значение в колонке телеметрии.");
+                }
+                int b = bytes[position++];
+                encoded |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            previous += (encoded >>> 1) ^ -(encoded & 1);
+            values[i] = previous;
+        }
+        return values;
+    }
+
+    /**
+     * Прибавляет счётчики второго массива к первому, расширяя его при необходимости.
+     */
+    private static long[] addInto(long[] a, long[] b) {
+        long[] result = a.length >= b.length ? a : Arrays.copyOf(a, b.length);
+        for (int i = 0; i < b.length; i++) {
+            result[i] += b[i];
+        }
+        return result;
+    }
+
+    /**
+     * Счётчик разных сессий ограниченного размера. Пока сессий мало, они хранятся
+     * точно в множестве с открытой адресацией; затем счётчик переходит к оценке HyperLogLog
+     * (4096 регистров, около 4 КБ и погрешность около 1,6% независимо от числа сессий).
+     * Счётчики сливаются без потери точности оценки, поэтому сегменты можно обрабатывать параллельно.
+     */
+    static final class SessionCounter {
+        /** Наибольшее число сессий, которое считается точно. */
+        static final int SPARSE_LIMIT = 256;
+        private static final int PRECISION = 12;
+        private static final int REGISTERS = 1 << PRECISION;
+
+        private long[] slots = new long[8];  // Точное множество, пока registers == null
+        private boolean hasZero;             // Ноль отмечает пустую ячейку, поэтому хранится отдельно
+        private int size;
+        private byte[] registers;
+
+        void add(long session) {
+            if (registers != null) {
+                addHashed(mix(session));
+                return;
+            }
+            if (session == 0) {
+                if (!hasZero) {
+                    hasZero = true;
+                    size++;
+                }
+            } else {
+                if ((size + 1) * 2 > slots.length) {
+                    long[] old = slots;
+                    slots = new long[old.length * 2];
+                    for (long value : old) {
+                        if (value != 0) {
+                            insert(value);
+                        }
+                    }
+                }
+                if (insert(session)) {
+                    size++;
+                }
+            }
+            if (size > SPARSE_LIMIT) {
+                toRegisters();
+            }
+        }
+
+        private boolean insert(long session) {
+            int mask = slots.length - 1;
+            long mixed = session * 0x9E3779B97F4A7C15L;
+            int i = (int) (mixed ^ (mixed >>> 32)) & mask;
+            while (slots[i] != 0) {
+                if (slots[i] == session) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[i] = session;
+            return true;
+        }
+
+        private void toRegisters() {
+            registers = new byte[REGISTERS];
+            if (hasZero) {
+                addHashed(mix(0));
+            }
+            for (long value : slots) {
+                if (value != 0) {
+                    addHashed(mix(value));
+                }
+            }
+            slots = null;
+        }
+
+        private void addHashed(long hash) {
+            int index = (int) (hash >>> (64 - PRECISION));
+            // Ранг - номер первой единицы в оставшихся битах; ограничитель не даёт ему превысить их число
+            int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+            if (rank > registers[index]) {
+                registers[index] = (byte) rank;
+            }
+        }
+
+        /**
+         * Перемешивает биты идентификатора (финализатор SplitMix64).
+         */
+        private static long mix(long value) {
+            value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+            value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+            return value ^ (value >>> 31);
+        }
+
+        /**
+         * Число сессий: точное для малых множеств, иначе оценка HyperLogLog.
+         */
+        long size() {
+            if (registers == null) {
+                return size;
+            }
+            double sum = 0;
+            int zeros = 0;
+            for (byte register : registers) {
+                sum += 1.0 / (1L << register);
+                if (register == 0) {
+                    zeros++;
+                }
+            }
+            double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+            double estimate = alpha * REGISTERS * REGISTERS / sum;
+            if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+                estimate = REGISTERS * Math.log((double) REGISTERS / zeros); // Поправка для малых значений
+            }
+            return Math.round(estimate);
+        }
+
+        /**
+         * Объединяет счётчики, добавляя меньший в больший.
+         *
+         * @return Счётчик объединения (один из переданных)
+         */
+        static SessionCounter union(SessionCounter a, SessionCounter b) {
+            if (a.registers != null && b.registers != null) {
+                for (int i = 0; i < REGISTERS; i++) {
+                    a.registers[i] = (byte) Math.max(a.registers[i], b.registers[i]);
+                }
+                return a;
+            }
+            SessionCounter target = a.registers != null || (b.registers == null && a.size >= b.size) ? a : b;
+            SessionCounter source = target == a ? b : a;
+            if (source.hasZero) {
+                target.add(0);
+            }
+            for (long value : source.slots) {
+                if (value != 0) {
+                    target.add(value);
+                }
+            }
+            return target;
+        }
+    }
+
+    /**
+     * Последнее событие каждой сессии: таблица с открытой адресацией на плоских массивах,
+     * около 20 байт на сессию без упаковки в объекты.
+     */
+    private static final class LastEvents {
+        private long[] sessions = new long[16];
+        private long[] timestamps = new long[16];
+        private int[] scenes = new int[16]; // Номер сцены * 2 + признак концовки, плюс один; 0 - пустая ячейка
+        private int size;
+
+        /**
+         * Запоминает событие, если оно позже уже известного. Концовка записывается сразу после
+         * перехода в ту же миллисекунду, поэтому при равном времени она не заменяется переходом.
+         */
+        void update(long session, long timestamp, int scene, boolean ending) {
+            if ((size + 1) * 2 > sessions.length) {
+                grow();
+            }
+            int i = slot(session);
+            int encoded = (scene << 1 | (ending ? 1 : 0)) + 1;
+            if (scenes[i] == 0) {
+                sessions[i] = session;
+                timestamps[i] = timestamp;
+                scenes[i] = encoded;
+                size++;
+            } else if (timestamp > timestamps[i]
+                    || (timestamp == timestamps[i] && (ending || ((scenes[i] - 1) & 1) == 0))) {
+                timestamps[i] = timestamp;
+                scenes[i] = encoded;
+            }
+        }
+
+        private int slot(long session) {
+            int mask = sessions.length - 1;
+            long mixed = session * 0x9E3779B97F4A7C15L;
+            int i = (int) (mixed ^ (mixed >>> 32)) & mask;
+            while (scenes[i] != 0 && sessions[i] != session) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private void grow() {
+            long[] oldSessions = sessions;
+            long[] oldTimestamps = timestamps;
+            int[] oldScenes = scenes;
+            sessions = new long[oldSessions.length * 2];
+            timestamps = new long[oldSessions.length * 2];
+            scenes = new int[oldSessions.length * 2];
+            for (int j = 0; j < oldSessions.length; j++) {
+                if (oldScenes[j] != 0) {
+                    int i = slot(oldSessions[j]);
+                    sessions[i] = oldSessions[j];
+                    timestamps[i] = oldTimestamps[j];
+                    scenes[i] = oldScenes[j];
+                }
+            }
+        }
+
+        /**
+         * Добавляет события другой части, переводя номера сцен через {@code remap}.
+         */
+        void mergeFrom(LastEvents other, int[] remap) {
+            for (int j = 0; j < other.sessions.length; j++) {
+                if (other.scenes[j] != 0) {
+                    int encoded = other.scenes[j] - 1;
+                    update(other.sessions[j], other.timestamps[j], remap[encoded >>> 1], (encoded & 1) == 1);
+                }
+            }
+        }
+
+        /**
+         * Считает по сценам сессии, закончившиеся концовкой и брошенные.
+         */
+        void countLast(long[] abandoned, long[] completed) {
+            for (int j = 0; j < sessions.length; j++) {
+                if (scenes[j] != 0) {
+                    int encoded = scenes[j] - 1;
+                    ((encoded & 1) == 1 ? completed : abandoned)[encoded >>> 1]++;
+                }
+            }
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package org.example.kursovaya;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Запись действий игроков (телеметрия) в структурированном виде.
+ * События сначала попадают в кольцевой буфер без блокировок, затем фоновый поток
+ * пакетами сбрасывает их в сжатые колоночные файлы-сегменты, которые читает {@link TelemetryQuery}.
+ * Если буфер переполнен, событие отбрасывается, а клик игрока никогда не ждёт записи на диск.
+ */
+public class TelemetryRecorder {
+    private static final Logger logger = LogManager.getLogger(TelemetryRecorder.class); // Логгер для записи действий
+    /** Сигнатура файла сегмента. */
+    static final int SEGMENT_MAGIC = 0x54515331; // "TQS1"
+    /** Расширение файлов сегментов. */
+    static final String SEGMENT_EXTENSION = ".tqs";
+    /** Число колонок в сегменте: время, сессия, сценарий, сцена, следующая сцена, номер выбора. */
+    static final int COLUMN_COUNT = 6;
+    /** Строк в сегменте, после которых он записывается. */
+    static final int SEGMENT_ROWS = 1 << 20;
+    /** Номер выбора в событии начала прохождения: сессия вошла в первую сцену. */
+    public static final int CHOICE_START = -1;
+    /** Номер выбора в событии завершения: сессия дошла до сцены без выборов. */
+    public static final int CHOICE_ENDING = -2;
+
+    static final int CAPACITY = 1 << 16;              // Размер кольцевого буфера (степень двойки)
+    private static final long DRAIN_INTERVAL_NANOS = 200_000_000L;
+    private static final long SEGMENT_INTERVAL_MILLIS = 10_000;
+
+    private static volatile TelemetryRecorder instance;
+
+    private final File directory;
+    private final int mask = CAPACITY - 1;
+    // Колонки кольцевого буфера
+    private final long[] timestamps = new long[CAPACITY];
+    private final long[] sessions = new long[CAPACITY];
+    private final int[] scenarios = new int[CAPACITY];
+    private final int[] scenes = new int[CAPACITY];
+    private final int[] nextScenes = new int[CAPACITY];
+    private final int[] choices = new int[CAPACITY];
+    private final AtomicLongArray published = new AtomicLongArray(CAPACITY); // Номер события, записанного в ячейку
+    private final AtomicLong claimed = new AtomicLong();  // Следующий свободный номер события
+    private volatile long consumed;                       // Номер первого ещё не прочитанного события
+    private final LongAdder dropped = new LongAdder();
+
+    // Словарь строк: в буфере и сегментах хранятся только номера
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<Integer, String> names = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    private final SegmentBuffer pending = new SegmentBuffer(); // Принадлежит только потоку сброса
+    private final AtomicInteger segmentCounter = new AtomicInteger();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    /**
+     * Возвращает общий экземпляр, записывающий сегменты в папку {@code telemetry}
+     * (или в папку из системного свойства {@code kursovaya.telemetry.dir}).
+     */
+    public static TelemetryRecorder getInstance() {
+        TelemetryRecorder result = instance;
+        if (result == null) {
+            synchronized (TelemetryRecorder.class) {
+                result = instance;
+                if (result == null) {
+                    result = new TelemetryRecorder(new File(System.getProperty("kursovaya.telemetry.dir", "telemetry")));
+                    TelemetryRecorder created = result;
+                    Runtime.getRuntime().addShutdownHook(new Thread(created::close, "telemetry-shutdown"));
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Конструктор записи телеметрии.
+     *
+     * @param directory Папка для файлов сегментов
+     */
+    public TelemetryRecorder(File directory) {
+        this.directory = directory;
+        for (int i = 0; i < CAPACITY; i++) {
+            published.set(i, -1);
+        }
+        flusher = new Thread(this::flushLoop, "telemetry-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Создаёт идентификатор новой игровой сессии.
+     */
+    public static long newSessionId() {
+        return ThreadLocalRandom.current().nextLong();
+    }
+
+    /**
+     * Записывает выбор игрока. Не блокируется и не обращается к диску.
+     *
+     * @param session Идентификатор сессии
+     * @param scenario Имя сценария
+     * @param fromScene Ключ сцены, в которой сделан выбор
+     * @param nextScene Ключ сцены, в которую ведёт выбор
+     * @param choiceIndex Номер выбранного варианта, {@link #CHOICE_START} или {@link #CHOICE_ENDING}
+     */
+    public void record(long session, String scenario, String fromScene, String nextScene, int choiceIndex) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= CAPACITY) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) (sequence & mask);
+        timestamps[slot] = System.currentTimeMillis();
+        sessions[slot] = session;
+        scenarios[slot] = idOf(scenario);
+        scenes[slot] = idOf(fromScene);
+        nextScenes[slot] = idOf(nextScene);
+        choices[slot] = choiceIndex;
+        published.lazySet(slot, sequence); // Публикуем событие после записи всех полей
+        if (sequence - consumed == CAPACITY / 2) {
+            LockSupport.unpark(flusher); // Буфер заполнен наполовину - сбрасываем, не дожидаясь интервала
+        }
+    }
+
+    /**
+     * Записывает начало прохождения, чтобы в отсеве учитывались и сессии, не сделавшие ни одного выбора.
+     *
+     * @param session Идентификатор сессии
+     * @param scenario Имя сценария
+     * @param startScene Ключ первой сцены
+     */
+    public void recordStart(long session, String scenario, String startScene) {
+        record(session, scenario, "", startScene, CHOICE_START);
+    }
+
+    /**
+     * Записывает, что сессия дошла до концовки (сцены без выборов),
+     * чтобы завершение сценария не считалось отказом от игры.
+     *
+     * @param session Идентификатор сессии
+     * @param scenario Имя сценария
+     * @param scene Ключ сцены-концовки
+     */
+    public void recordEnding(long session, String scenario, String scene) {
+        record(session, scenario, scene, scene, CHOICE_ENDING);
+    }
+
+    /**
+     * Возвращает номер строки в словаре, добавляя её при необходимости.
+     */
+    private int idOf(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        return ids.computeIfAbsent(value, v -> {
+            int created = nextId.getAndIncrement();
+            names.put(created, v);
+            return created;
+        });
+    }
+
+    /**
+     * Число записанных, но ещё не перенесённых в буфер сегмента событий.
+     */
+    long backlog() {
+        return claimed.get() - consumed;
+    }
+
+    /**
+     * Число событий, отброшенных из-за переполнения буфера.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Записывает накопленные события и останавливает поток сброса.
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Цикл потока сброса: периодически забирает события из буфера
+     * и записывает сегмент, когда он заполнен или давно не записывался.
+     */
+    private void flushLoop() {
+        long lastWrite = System.currentTimeMillis();
+        while (running) {
+            LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+            drain();
+            long now = System.currentTimeMillis();
+            if (pending.size >= SEGMENT_ROWS || (pending.size > 0 && now - lastWrite >= SEGMENT_INTERVAL_MILLIS)) {
+                writeSegment();
+                lastWrite = now;
+            }
+        }
+        drain();
+        if (pending.size > 0) {
+            writeSegment();
+        }
+        if (dropped.sum() > 0) {
+            logger.warn("Телеметрия: отброшено событий из-за переполнения буфера: {}", dropped.sum());
+        }
+    }
+
+    /**
+     * Переносит опубликованные события из кольцевого буфера в буфер сегмента.
+     */
+    private void drain() {
+        long sequence = consumed;
+        while (true) {
+            int slot = (int) (sequence & mask);
+            if (published.get(slot) != sequence) {
+                break;
+            }
+            pending.add(timestamps[slot], sessions[slot], scenarios[slot], scenes[slot], nextScenes[slot], choices[slot]);
+            sequence++;
+            if (pending.size >= SEGMENT_ROWS) {
+                consumed = sequence;
+                writeSegment();
+            }
+        }
+        consumed = sequence;
+    }
+
+    /**
+     * Записывает буфер сегмента в файл.
+     */
+    private void writeSegment() {
+        int rows = pending.size;
+        Map<Integer, String> dictionary = new TreeMap<>();
+        for (int i = 0; i < rows; i++) {
+            dictionary.put(pending.scenarios[i], names.get(pending.scenarios[i]));
+            dictionary.put(pending.scenes[i], names.get(pending.scenes[i]));
+            dictionary.put(pending.nextScenes[i], names.get(pending.nextScenes[i]));
+        }
+        long[][] columns = {
+                pending.timestamps, pending.sessions, widen(pending.scenarios, rows),
+                widen(pending.scenes, rows), widen(pending.nextScenes, rows), widen(pending.choices, rows)
+        };
+        String name = "segment-" + System.currentTimeMillis() + "-" + segmentCounter.getAndIncrement();
+        try {
+            writeSegmentFile(directory, name, rows, dictionary, columns);
+        } catch (IOException e) {
+            logger.error("Не удалось записать сегмент телеметрии: {}", e.getMessage(), e);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Записывает сегмент в папку. Используется и при записи событий, и при слиянии мелких сегментов.
+     * Формат: сигнатура, число строк, словарь (номер и строка), затем каждая колонка
+     * отдельным сжатым блоком с длиной впереди, чтобы при чтении ненужные колонки можно было пропустить.
+     * Значения колонок записываются как разности с предыдущим значением в формате varint.
+     * Файл сначала пишется под временным именем и становится виден для чтения только после полной записи.
+     *
+     * @param directory Папка сегментов
+     * @param name Имя сегмента без расширения
+     * @param rows Число строк
+     * @param dictionary Словарь строк, на которые ссылаются колонки сценария и сцен
+     * @param columns Колонки в порядке, описанном у {@link #COLUMN_COUNT}
+     * @return Записанный файл сегмента
+     * @throws IOException Если сегмент не удалось записать
+     */
+    static File writeSegmentFile(File directory, String name, int rows, Map<Integer, String> dictionary,
+                                 long[][] columns) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Не удалось создать папку телеметрии: " + directory.getAbsolutePath());
+        }
+        File temp = new File(directory, name + ".tmp");
+        File target = new File(directory, name + SEGMENT_EXTENSION);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeInt(rows);
+            out.writeInt(dictionary.size());
+            for (Map.Entry<Integer, String> entry : dictionary.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            for (long[] column : columns) {
+                writeColumn(out, column, rows);
+            }
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+
+    private static void writeColumn(DataOutputStream out, long[] values, int rows) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream gzip = new BufferedOutputStream(new GZIPOutputStream(bytes))) {
+            long previous = 0;
+            for (int i = 0; i < rows; i++) {
+                writeVarLong(gzip, zigZag(values[i] - previous));
+                previous = values[i];
+            }
+        }
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    private static long[] widen(int[] values, int rows) {
+        long[] widened = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            widened[i] = values[i];
+        }
+        return widened;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Колонки событий, ожидающих записи в сегмент.
+     */
+    private static final class SegmentBuffer {
+        private long[] timestamps = new long[1024];
+        private long[] sessions = new long[1024];
+        private int[] scenarios = new int[1024];
+        private int[] scenes = new int[1024];
+        private int[] nextScenes = new int[1024];
+        private int[] choices = new int[1024];
+        private int size;
+
+        void add(long timestamp, long session, int scenario, int scene, int nextScene, int choice) {
+            if (size == timestamps.length) {
+                int capacity = size * 2;
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                sessions = Arrays.copyOf(sessions, capacity);
+                scenarios = Arrays.copyOf(scenarios, capacity);
+                scenes = Arrays.copyOf(scenes, capacity);
+                nextScenes = Arrays.copyOf(nextScenes, capacity);
+                choices = Arrays.copyOf(choices, capacity);
+            }
+            timestamps[size] = timestamp;
+            sessions[size] = session;
+            scenarios[size] = scenario;
+            scenes[size] = scene;
+            nextScenes[size] = nextScene;
+            choices[size] = choice;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.example.kursovaya;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
@@ -11,8 +12,13 @@ import javafx.stage.DirectoryChooser;
 import javafx.stage.Stage;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -22,9 +28,20 @@ import java.util.List;
  */
 public class TextQuestApp extends Application {
     private final List<String> scenarioNames = new ArrayList<>();
-    private static final Logger logger = LogManager.getLogger(TextQuestApp.class); // Логгер для log4j
+    private static final File CACHE_FILE = new File("scenario-list.cache"); // Список сценариев с прошлого запуска
+    // Режим замера времени запуска: время выводится в консоль, после чего приложение закрывается
+    private static final boolean STARTUP_PROBE = Boolean.getBoolean("kursovaya.startupProbe");
     private String baseDirectory = "scenarios"; // Директория для сценариев
     private ListView<String> scenarioList; // Список сценариев
+    private int startupStagesReported; // Сколько этапов запуска уже замерено
+
+    /**
+     * Держатель логгера: конфигурация log4j загружается при первом обращении,
+     * а не при запуске, чтобы не задерживать показ окна.
+     */
+    private static final class Log {
+        private static final Logger logger = LogManager.getLogger(TextQuestApp.class); // Логгер для log4j
+    }
 
     /**
      * Запускает приложение.
@@ -44,7 +61,6 @@ public class TextQuestApp extends Application {
      */
     @Override
     public void start(Stage primaryStage) {
-        logger.info("Приложение запущено.");
         try {
             BorderPane root = new BorderPane();
             root.setPadding(new Insets(10));
@@ -55,10 +71,9 @@ public class TextQuestApp extends Application {
             VBox topSection = new VBox(titleLabel);
             topSection.setPadding(new Insets(10, 0, 10, 0));
 
-            // Список сценариев
+            // Список сценариев: сначала из кэша, актуальный список загружается в фоне
             scenarioList = new ListView<>();
-            loadScenarioFromFolder(new File(baseDirectory));
-            scenarioList.getItems().addAll(scenarioNames);
+            scenarioList.getItems().addAll(readCachedScenarioList());
 
             // Блок кнопок
             Button startButton = new Button("Начать");
@@ -93,36 +108,158 @@ public class TextQuestApp extends Application {
             root.setBottom(buttonBox);
 
             Scene scene = new Scene(root, 600, 400);
+            if (STARTUP_PROBE) {
+                scene.addPostLayoutPulseListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        scene.removePostLayoutPulseListener(this);
+                        reportStartupStage("first-frame");
+                    }
+                });
+            }
             primaryStage.setTitle("Текстовый квест");
             primaryStage.setScene(scene);
             primaryStage.show();
+
+            initializeInBackground();
         } catch (Exception e) {
-            logger.error("Ошибка запуска приложения: {}", e.getMessage(), e);
+            Log.logger.error("Ошибка запуска приложения: {}", e.getMessage(), e);
+            if (STARTUP_PROBE) {
+                // Этапы запуска уже не будут пройдены, поэтому замер завершается, а не ждёт их
+                System.out.println("STARTUP failed " + e.getMessage());
+                Platform.exit();
+                return;
+            }
             showAlert("Критическая ошибка", "Ошибка запуска приложения. Посмотрите app.log для деталей.");
         }
     }
 
+    /**
+     * Выполняет в фоновом потоке то, что не нужно для первого кадра:
+     * настройку логирования, загрузку классов работы с JSON и сценариями и просмотр папки сценариев.
+     * По завершении список сценариев обновляется и сохраняется в кэш.
+     */
+    private void initializeInBackground() {
+        String folder = baseDirectory;
+        Thread initializer = new Thread(() -> {
+            Log.logger.info("Приложение запущено.");
+            preloadClasses();
+            List<String> names = scanScenarioFolder(new File(folder));
+            Platform.runLater(() -> {
+                if (folder.equals(baseDirectory)) { // Папку могли сменить, пока шёл просмотр
+                    String selected = scenarioList.getSelectionModel().getSelectedItem();
+                    scenarioNames.clear();
+                    scenarioNames.addAll(names);
+                    scenarioList.getItems().setAll(scenarioNames);
+                    if (selected != null && scenarioNames.contains(selected)) {
+                        scenarioList.getSelectionModel().select(selected); // Сохраняем выбор, сделанный по кэшу
+                    }
+                    writeCachedScenarioList();
+                }
+                reportStartupStage("interactive");
+            });
+        }, "startup-init");
+        initializer.setDaemon(true);
+        initializer.start();
+    }
+
+    /**
+     * Заранее загружает классы, нужные при открытии сценария, чтобы первый запуск сценария не ждал их загрузки.
+     */
+    private static void preloadClasses() {
+        new JSONObject("{\"start\": {\"text\": \"\", \"choices\": []}}"); // Прогрев разбора JSON
+        for (Class<?> type : List.of(BaseWindow.class, AddScenario.class, CreateNewScenario.class)) {
+            try {
+                Class.forName(type.getName(), true, type.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                Log.logger.warn("Не удалось заранее загрузить класс {}: {}", type.getName(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Читает список сценариев, сохранённый при прошлом запуске.
+     * Первая строка файла - папка сценариев, остальные - имена сценариев.
+     *
+     * @return Имена сценариев или пустой список, если кэша нет или он относится к другой папке
+     */
+    private List<String> readCachedScenarioList() {
+        try {
+            if (CACHE_FILE.exists()) {
+                List<String> lines = Files.readAllLines(CACHE_FILE.toPath());
+                if (!lines.isEmpty() && lines.get(0).equals(baseDirectory)) {
+                    return lines.subList(1, lines.size());
+                }
+            }
+        } catch (IOException e) {
+            // Кэш необязателен: список всё равно будет загружен в фоне
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Сохраняет текущий список сценариев для быстрого показа при следующем запуске.
+     * Вызывается при каждом обновлении списка, чтобы кэш не отставал от папки.
+     */
+    private void writeCachedScenarioList() {
+        List<String> lines = new ArrayList<>();
+        lines.add(baseDirectory);
+        lines.addAll(scenarioNames);
+        try {
+            Files.write(CACHE_FILE.toPath(), lines);
+        } catch (IOException e) {
+            Log.logger.warn("Не удалось сохранить кэш списка сценариев: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Выводит время от запуска JVM до указанного этапа в режиме замера запуска.
+     * Когда пройдены оба этапа (первый кадр и готовность к работе), приложение закрывается.
+     *
+     * @param stage Название этапа
+     */
+    private void reportStartupStage(String stage) {
+        if (!STARTUP_PROBE) {
+            return;
+        }
+        Instant jvmStart = ProcessHandle.current().info().startInstant().orElse(Instant.now());
+        System.out.println("STARTUP " + stage + " " + Duration.between(jvmStart, Instant.now()).toMillis());
+        if (++startupStagesReported == 2) {
+            Platform.exit();
+        }
+    }
+
     /**
      * Загружает сценарии из указанной папки.
      */
     private void loadScenarioFromFolder(File folder) {
         scenarioNames.clear();
+        scenarioNames.addAll(scanScenarioFolder(folder));
+    }
+
+    /**
+     * Возвращает имена сценариев в папке: подпапок, содержащих файл scenario.txt.
+     */
+    private static List<String> scanScenarioFolder(File folder) {
+        List<String> names = new ArrayList<>();
         if (folder.exists() && folder.isDirectory()) {
             for (File subFolder : folder.listFiles()) {
                 if (subFolder.isDirectory() && new File(subFolder, "scenario.txt").exists()) {
-                    scenarioNames.add(subFolder.getName());
+                    names.add(subFolder.getName());
                 }
             }
         }
+        return names;
     }
 
     /**
-     * Обновляет список сценариев.
+     * Обновляет список сценариев и его кэш.
      */
     private void refreshScenarioList() {
         scenarioList.getItems().clear();
         loadScenarioFromFolder(new File(baseDirectory));
         scenarioList.getItems().addAll(scenarioNames);
+        writeCachedScenarioList();
     }
 
     /**
@@ -154,7 +291,7 @@ public class TextQuestApp extends Application {
      * Запускает окно игры для выбранного сценария.
      */
     private void launchScenario(Stage stage, String scenarioName) {
-        logger.info("Загрузка сценария: {}", scenarioName);
+        Log.logger.info("Загрузка сценария: {}", scenarioName);
         AddScenario gameWindow = new AddScenario(stage, scenarioName, baseDirectory);
         gameWindow.show();
     }
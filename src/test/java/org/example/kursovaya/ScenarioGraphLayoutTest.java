@@ -0,0 +1,192 @@
+package org.example.kursovaya;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты для класса ScenarioGraphLayout.
+ */
+public class ScenarioGraphLayoutTest {
+
+    /**
+     * Создаёт сцену с выборами, ведущими в указанные сцены.
+     */
+    private JSONObject scene(String... nextKeys) {
+        JSONArray choices = new JSONArray();
+        for (String next : nextKeys) {
+            choices.put(new JSONObject().put("option", "to " + next).put("next", next));
+        }
+        return new JSONObject().put("text", "text").put("choices", choices);
+    }
+
+    /**
+     * Возвращает номер узла по ключу сцены.
+     */
+    private int node(ScenarioGraphLayout layout, String key) {
+        for (int i = 0; i < layout.nodeCount(); i++) {
+            if (layout.key(i).equals(key)) {
+                return i;
+            }
+        }
+        fail("Узел " + key + " не найден.");
+        return -1;
+    }
+
+    /**
+     * Возвращает номер слоя узла по его координате.
+     */
+    private int layer(ScenarioGraphLayout layout, String key) {
+        return (int) Math.round(layout.x(node(layout, key)) / ScenarioGraphLayout.LAYER_SPACING);
+    }
+
+    /**
+     * Собирает ключи узлов, попавших в прямоугольник.
+     */
+    private Set<String> query(ScenarioGraphLayout layout, double minX, double minY, double maxX, double maxY) {
+        Set<String> found = new HashSet<>();
+        layout.queryNodes(minX, minY, maxX, maxY, node -> found.add(layout.key(node)));
+        return found;
+    }
+
+    /**
+     * Тест на назначение слоёв по кратчайшему пути от "start" и размещение недостижимых сцен после достижимых.
+     */
+    @Test
+    public void testLayers() {
+        JSONObject scenarioData = new JSONObject();
+        scenarioData.put("start", scene("a", "b"));
+        scenarioData.put("a", scene("c"));
+        scenarioData.put("b", scene("c", "start"));
+        scenarioData.put("c", scene());
+        scenarioData.put("orphan", scene("orphanChild"));
+        scenarioData.put("orphanChild", scene());
+
+        ScenarioGraphLayout layout = ScenarioGraphLayout.compute(scenarioData);
+
+        assertEquals(6, layout.nodeCount(), "Не все сцены попали в раскладку.");
+        assertEquals(0, layer(layout, "start"), "Сцена 'start' должна быть в первом слое.");
+        assertEquals(1, layer(layout, "a"), "Неверный слой сцены 'a'.");
+        assertEquals(1, layer(layout, "b"), "Неверный слой сцены 'b'.");
+        assertEquals(2, layer(layout, "c"), "Слой должен равняться длине кратчайшего пути.");
+        assertEquals(3, layer(layout, "orphan"), "Недостижимая сцена должна идти после достижимых.");
+        assertEquals(4, layer(layout, "orphanChild"), "Неверный слой потомка недостижимой сцены.");
+        assertEquals(2, layout.children(node(layout, "b")).length, "Неверное число рёбер сцены 'b'.");
+    }
+
+    /**
+     * Тест на добавление узлов, в том числе за пределами границ квадродерева.
+     */
+    @Test
+    public void testAddNode() {
+        JSONObject scenarioData = new JSONObject();
+        scenarioData.put("start", scene("a"));
+        scenarioData.put("a", scene());
+        ScenarioGraphLayout layout = ScenarioGraphLayout.compute(scenarioData);
+
+        // Цепочка уходит вправо дальше запаса, выделенного квадродереву при построении
+        String parent = "a";
+        for (int i = 0; i < 10; i++) {
+            layout.addNode(parent, "n" + i);
+            parent = "n" + i;
+        }
+
+        assertEquals(12, layout.nodeCount(), "Добавленные узлы не учтены.");
+        assertEquals(11, layer(layout, "n9"), "Новый узел должен идти в слое после родителя.");
+        double farX = layout.x(node(layout, "n9"));
+        assertEquals(Set.of("n9"), query(layout, farX - 1, -1, farX + 1, 1),
+                "Узел за пределами прежних границ не найден после перестройки индекса.");
+        assertEquals(12, query(layout, -1e6, -1e6, 1e6, 1e6).size(), "Не все узлы есть в индексе.");
+
+        // Для существующего узла добавляется только ребро
+        layout.addNode("start", "n0");
+        assertEquals(12, layout.nodeCount(), "Существующий узел добавлен повторно.");
+        assertEquals(2, layout.children(node(layout, "start")).length, "Ребро к существующему узлу не добавлено.");
+    }
+
+    /**
+     * Тест на отсечение узлов за пределами видимой области.
+     */
+    @Test
+    public void testQueryNodesCulling() {
+        JSONObject scenarioData = new JSONObject();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            keys.add("s" + i);
+            scenarioData.put("s" + i, scene());
+        }
+        scenarioData.put("start", scene(keys.toArray(new String[0])));
+        ScenarioGraphLayout layout = ScenarioGraphLayout.compute(scenarioData);
+
+        // Во втором слое 200 узлов с шагом NODE_SPACING, в окно попадают первые десять
+        double x = ScenarioGraphLayout.LAYER_SPACING;
+        double bottom = 9 * ScenarioGraphLayout.NODE_SPACING;
+        Set<String> visible = query(layout, x - 1, 0, x + 1, bottom);
+
+        assertEquals(10, visible.size(), "В видимую область попало неверное число узлов.");
+        for (String key : visible) {
+            double y = layout.y(node(layout, key));
+            assertTrue(y >= 0 && y <= bottom, "Узел " + key + " вне видимой области.");
+        }
+        assertTrue(query(layout, x + 1, 0, x + 100, bottom).isEmpty(), "Найдены узлы между слоями.");
+        assertEquals(Set.of("start"), query(layout, -1, -1, 1, 1), "Сцена 'start' не найдена.");
+    }
+
+    /**
+     * Собирает рёбра, пересекающие прямоугольник, в виде "откуда->куда".
+     */
+    private Set<String> queryEdges(ScenarioGraphLayout layout, double minX, double minY, double maxX, double maxY) {
+        Set<String> found = new HashSet<>();
+        layout.queryEdges(minX, minY, maxX, maxY, (from, to) -> found.add(layout.key(from) + "->" + layout.key(to)));
+        return found;
+    }
+
+    /**
+     * Тест на поиск рёбер, пересекающих видимую область, даже если их концы за её пределами.
+     */
+    @Test
+    public void testQueryEdges() {
+        JSONObject scenarioData = new JSONObject();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            keys.add("s" + i);
+            scenarioData.put("s" + i, scene());
+        }
+        scenarioData.put("s199", scene("start"));
+        scenarioData.put("start", scene(keys.toArray(new String[0])));
+        ScenarioGraphLayout layout = ScenarioGraphLayout.compute(scenarioData);
+
+        double x = ScenarioGraphLayout.LAYER_SPACING;
+        double y = layout.y(node(layout, "s150"));
+        assertEquals(6000, y, 1e-9, "Неверное положение сцены 's150'.");
+        assertEquals(Set.of("start->s150"), queryEdges(layout, x - 1, y - 1, x + 1, y + 1),
+                "Не найдено входящее ребро видимой сцены, начало которого за пределами области.");
+
+        // Середина ребра start->s150, оба конца далеко за пределами области
+        assertEquals(Set.of("start->s150"), queryEdges(layout, x / 2, y / 2 - 5, x / 2 + 0.5, y / 2 + 5),
+                "Не найдено ребро, пересекающее область.");
+
+        double backY = layout.y(node(layout, "s199")) / 2;
+        assertTrue(queryEdges(layout, x / 2 - 1, backY - 1, x / 2 + 1, backY + 1).contains("s199->start"),
+                "Не найдено обратное ребро к сцене 'start'.");
+        assertTrue(queryEdges(layout, x + 10, -1e6, x + 1000, 1e6).isEmpty(), "Найдены рёбра вне области.");
+
+        // Каждое ребро видимой сцены находится запросом к области вокруг неё
+        for (int i = 0; i < 200; i += 17) {
+            double sy = layout.y(node(layout, "s" + i));
+            assertTrue(queryEdges(layout, x - 1, sy - 1, x + 1, sy + 1).contains("start->s" + i),
+                    "Не найдено входящее ребро сцены s" + i + ".");
+        }
+
+        layout.addNode("s10", "added");
+        double midX = (layout.x(node(layout, "s10")) + layout.x(node(layout, "added"))) / 2;
+        double midY = (layout.y(node(layout, "s10")) + layout.y(node(layout, "added"))) / 2;
+        assertTrue(queryEdges(layout, midX - 1, midY - 1, midX + 1, midY + 1).contains("s10->added"),
+                "Добавленное ребро не попало в индекс.");
+    }
+}
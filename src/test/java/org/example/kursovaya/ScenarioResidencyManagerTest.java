@@ -0,0 +1,217 @@
+package org.example.kursovaya;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.*;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты для класса ScenarioResidencyManager.
+ */
+public class ScenarioResidencyManagerTest {
+
+    private static final long BUDGET = 1024 * 1024; // Бюджет кэша в тестах, байт
+    private ScenarioResidencyManager manager;
+    private AtomicInteger loads; // Число вызовов загрузчика
+
+    /**
+     * Создание кэша перед каждым тестом.
+     */
+    @BeforeEach
+    public void setUp() {
+        manager = new ScenarioResidencyManager(BUDGET);
+        loads = new AtomicInteger();
+    }
+
+    /**
+     * Загрузчик тестового сценария: 50 сцен с текстом около 200 символов.
+     */
+    private JSONObject loadScenario(String key) {
+        loads.incrementAndGet();
+        JSONObject scenario = new JSONObject();
+        for (int i = 0; i < 50; i++) {
+            JSONArray choices = new JSONArray();
+            choices.put(new JSONObject().put("option", "Дальше").put("next", "scene" + (i + 1)));
+            scenario.put(i == 0 ? "start" : "scene" + i, new JSONObject()
+                    .put("text", key + " " + "текст сцены ".repeat(16))
+                    .put("choices", choices));
+        }
+        return scenario;
+    }
+
+    /**
+     * Тест на то, что окна одного сценария получают общий экземпляр данных.
+     */
+    @Test
+    public void testSharedInstance() {
+        ScenarioResidencyManager.LoadedScenario first = manager.get("a", this::loadScenario);
+        ScenarioResidencyManager.LoadedScenario second = manager.get("a", this::loadScenario);
+
+        assertSame(first.getData(), second.getData(), "Для одного сценария должен возвращаться общий экземпляр.");
+        assertSame(first.getLinkIndex(), second.getLinkIndex(), "Индекс переходов должен храниться вместе с данными.");
+        assertEquals(1, loads.get(), "Сценарий загружен повторно.");
+        assertEquals(1, manager.getHitCount(), "Обращение не учтено как попадание.");
+    }
+
+    /**
+     * Тест на повторную загрузку вытесненного сценария при следующем обращении.
+     */
+    @Test
+    public void testReloadAfterEviction() {
+        manager.get("a", this::loadScenario);
+        int scenarios = (int) (BUDGET / ScenarioResidencyManager.estimateSize(loadScenario("x"))) * 2;
+        for (int i = 0; i < scenarios; i++) {
+            // Другие сценарии используются чаще, поэтому вытесняют первый
+            manager.get("other" + i, this::loadScenario);
+            manager.get("other" + i, this::loadScenario);
+        }
+        int loadsBefore = loads.get();
+
+        JSONObject reloaded = manager.get("a", this::loadScenario).getData();
+
+        assertEquals(loadsBefore + 1, loads.get(), "Вытесненный сценарий не был загружен заново.");
+        assertTrue(reloaded.getJSONObject("start").getString("text").startsWith("a "), "Загружен не тот сценарий.");
+        assertTrue(manager.getEvictionCount() > 0, "Сценарии не вытеснялись.");
+    }
+
+    /**
+     * Тест на то, что часто используемый сценарий не вытесняется потоком однократных обращений.
+     */
+    @Test
+    public void testFrequentScenarioSurvivesScan() {
+        for (int i = 0; i < 5; i++) {
+            manager.get("hot", this::loadScenario);
+        }
+        for (int i = 0; i < 1000; i++) {
+            manager.get("cold" + i, this::loadScenario);
+            if (i % 50 == 0) {
+                manager.get("hot", this::loadScenario);
+            }
+        }
+        int loadsBefore = loads.get();
+
+        manager.get("hot", this::loadScenario);
+
+        assertEquals(loadsBefore, loads.get(), "Часто используемый сценарий был вытеснен.");
+    }
+
+    /**
+     * Считает сценарии, до которых ещё можно дотянуться. Сборка мусора запрашивается
+     * несколько раз, пока не останется не больше ожидаемого числа сценариев.
+     */
+    private int countReachable(List<WeakReference<ScenarioResidencyManager.LoadedScenario>> references, int expected)
+            throws InterruptedException {
+        int reachable = Integer.MAX_VALUE;
+        for (int attempt = 0; attempt < 20 && reachable > expected; attempt++) {
+            System.gc();
+            Thread.sleep(10);
+            reachable = 0;
+            for (WeakReference<ScenarioResidencyManager.LoadedScenario> reference : references) {
+                if (reference.get() != null) {
+                    reachable++;
+                }
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * Тест на постоянный объём памяти при переборе 10 000 сценариев.
+     * Кроме оценки размера кэша проверяется, что вытесненные сценарии действительно
+     * освобождаются: после сборки мусора в памяти остаются только сценарии, находящиеся в кэше.
+     */
+    @Test
+    public void testSteadyHeapWhenCyclingScenarios() throws InterruptedException {
+        long scenarioSize = ScenarioResidencyManager.estimateSize(loadScenario("scenario0"));
+        loads.set(0);
+        List<WeakReference<ScenarioResidencyManager.LoadedScenario>> references = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            references.add(new WeakReference<>(manager.get("warmup" + i, this::loadScenario)));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            references.add(new WeakReference<>(manager.get("scenario" + i, this::loadScenario)));
+            assertTrue(manager.weightedSize() <= BUDGET, "Превышен бюджет памяти кэша.");
+        }
+
+        assertEquals(11_000, loads.get(), "Каждый новый сценарий должен загружаться ровно один раз.");
+        assertTrue(manager.size() <= BUDGET / scenarioSize, "В кэше больше сценариев, чем помещается в бюджет.");
+        assertEquals(11_000 - manager.size(), manager.getEvictionCount(),
+                "Все не поместившиеся сценарии должны быть вытеснены.");
+        int reachable = countReachable(references, manager.size());
+        assertTrue(reachable <= manager.size(),
+                "Вытесненные сценарии остаются в памяти: " + reachable + " при " + manager.size() + " в кэше.");
+    }
+
+    /**
+     * Тест на то, что сценарий, открытый в окне, не вытесняется и не загружается второй копией.
+     */
+    @Test
+    public void testPinnedScenarioIsNotEvicted() throws InterruptedException {
+        ScenarioResidencyManager.LoadedScenario pinned = manager.acquire("open", this::loadScenario);
+        for (int i = 0; i < 1000; i++) {
+            manager.get("other" + i, this::loadScenario);
+            manager.get("other" + i, this::loadScenario);
+        }
+        int loadsBefore = loads.get();
+
+        assertSame(pinned, manager.get("open", this::loadScenario), "Закреплённый сценарий загружен второй копией.");
+        assertEquals(loadsBefore, loads.get(), "Закреплённый сценарий был вытеснен.");
+
+        manager.release("open");
+        for (int i = 0; i < 1000; i++) {
+            // Новые сценарии используются чаще освобождённого, поэтому вытесняют его
+            for (int j = 0; j < 4; j++) {
+                manager.get("more" + i, this::loadScenario);
+            }
+        }
+        List<WeakReference<ScenarioResidencyManager.LoadedScenario>> released = List.of(new WeakReference<>(pinned));
+        pinned = null;
+        assertEquals(0, countReachable(released, 0), "Освобождённый и вытесненный сценарий остался в памяти.");
+    }
+
+    /**
+     * Тест на обновление сценария на месте при перезагрузке.
+     */
+    @Test
+    public void testReloadRefreshesInPlace() {
+        ScenarioResidencyManager.LoadedScenario loaded = manager.acquire("a", this::loadScenario);
+        JSONObject fresh = new JSONObject();
+        fresh.put("start", new JSONObject().put("text", "Новый текст")
+                .put("choices", new JSONArray().put(new JSONObject().put("option", "Дальше").put("next", "end"))));
+        fresh.put("end", new JSONObject().put("text", "Конец").put("choices", new JSONArray()));
+
+        ScenarioResidencyManager.LoadedScenario reloaded = manager.reload("a", key -> fresh);
+
+        assertSame(loaded, reloaded, "Перезагрузка должна обновлять общий экземпляр, а не заменять его.");
+        assertEquals("Новый текст", loaded.getData().getJSONObject("start").getString("text"),
+                "Окно со старой ссылкой не видит новую версию сценария.");
+        assertFalse(loaded.getData().has("scene1"), "Сцены старой версии не удалены.");
+        assertEquals(Map.of("start", 1), loaded.getLinkIndex().incoming("end"), "Индекс переходов не перестроен.");
+        assertTrue(loaded.getLinkIndex().incoming("scene1").isEmpty(), "В индексе остались старые переходы.");
+        assertEquals(ScenarioResidencyManager.estimateSize(fresh), manager.weightedSize(),
+                "Размер сценария не пересчитан после перезагрузки.");
+    }
+
+    /**
+     * Тест на пересчёт размера сценария после изменения его данных на месте.
+     */
+    @Test
+    public void testUpdateWeightAfterEdit() {
+        ScenarioResidencyManager.LoadedScenario loaded = manager.acquire("a", this::loadScenario);
+        long before = manager.weightedSize();
+
+        loaded.getLinkIndex().addScene("added", new JSONObject()
+                .put("text", "новая сцена ".repeat(100))
+                .put("choices", new JSONArray()));
+        manager.updateWeight("a");
+
+        assertTrue(manager.weightedSize() > before, "Размер сценария не вырос после добавления сцены.");
+        assertEquals(ScenarioResidencyManager.estimateSize(loaded.getData()), manager.weightedSize(),
+                "Размер сценария не совпадает с оценкой изменённых данных.");
+    }
+}
@@ -0,0 +1,182 @@
+package org.example.kursovaya;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.*;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты для класса SceneLinkIndex.
+ */
+public class SceneLinkIndexTest {
+
+    private JSONObject scenarioData;
+    private SceneLinkIndex linkIndex;
+
+    /**
+     * Подготовка тестового сценария перед каждым тестом:
+     * start -> a, start -> b, a -> c, b -> c, c -> d.
+     */
+    @BeforeEach
+    public void setUp() {
+        scenarioData = new JSONObject();
+        scenarioData.put("start", scene("Start", "a", "b"));
+        scenarioData.put("a", scene("A", "c"));
+        scenarioData.put("b", scene("B", "c"));
+        scenarioData.put("c", scene("C", "d"));
+        scenarioData.put("d", scene("D"));
+        linkIndex = new SceneLinkIndex(scenarioData);
+    }
+
+    /**
+     * Создаёт сцену с выборами, ведущими в указанные сцены.
+     */
+    private JSONObject scene(String text, String... nextKeys) {
+        JSONArray choices = new JSONArray();
+        for (String next : nextKeys) {
+            choices.put(new JSONObject().put("option", "to " + next).put("next", next));
+        }
+        return new JSONObject().put("text", text).put("choices", choices);
+    }
+
+    /**
+     * Тест на построение обратного индекса.
+     */
+    @Test
+    public void testIncoming() {
+        assertEquals(Map.of("a", 1, "b", 1), linkIndex.incoming("c"), "Неверные входящие выборы сцены 'c'.");
+        assertTrue(linkIndex.incoming("start").isEmpty(), "В сцену 'start' не ведут выборы.");
+    }
+
+    /**
+     * Тест на обнаружение занятого ключа.
+     */
+    @Test
+    public void testKeyCollision() {
+        assertTrue(linkIndex.hasScene("a"), "Ключ 'a' должен быть занят.");
+        assertThrows(IllegalArgumentException.class, () -> linkIndex.addScene("a", scene("Other")),
+                "Существующая сцена не должна перезаписываться.");
+        assertEquals("A", scenarioData.getJSONObject("a").getString("text"), "Сцена 'a' была перезаписана.");
+    }
+
+    /**
+     * Тест на добавление сцены и выбора с обновлением индекса.
+     */
+    @Test
+    public void testAddSceneAndChoice() {
+        linkIndex.addScene("e", scene("E", "d"));
+        linkIndex.addChoice("a", "to e", "e");
+
+        assertEquals(Map.of("a", 1), linkIndex.incoming("e"), "Выбор в новую сцену не попал в индекс.");
+        assertEquals(Map.of("c", 1, "e", 1), linkIndex.incoming("d"), "Выбор из новой сцены не попал в индекс.");
+    }
+
+    /**
+     * Тест на переименование сцены.
+     */
+    @Test
+    public void testRenameScene() {
+        linkIndex.renameScene("c", "crossroads");
+
+        assertFalse(scenarioData.has("c"), "Старый ключ остался в сценарии.");
+        assertEquals("C", scenarioData.getJSONObject("crossroads").getString("text"), "Сцена не перенесена.");
+        assertEquals("crossroads", scenarioData.getJSONObject("a").getJSONArray("choices")
+                .getJSONObject(0).getString("next"), "Выбор из 'a' не переведён на новый ключ.");
+        assertEquals(Map.of("a", 1, "b", 1), linkIndex.incoming("crossroads"), "Входящие выборы не перенесены.");
+        assertEquals(Map.of("crossroads", 1), linkIndex.incoming("d"), "Исходящие выборы не перенесены.");
+        assertTrue(linkIndex.incoming("c").isEmpty(), "Старый ключ остался в индексе.");
+    }
+
+    /**
+     * Тест на удаление поддерева: сцена 'c' достижима и через 'b', поэтому остаётся.
+     */
+    @Test
+    public void testDeleteSubtree() {
+        Set<String> deleted = linkIndex.deleteSubtree("a");
+
+        assertEquals(Set.of("a"), deleted, "Удалены лишние сцены.");
+        assertEquals(1, scenarioData.getJSONObject("start").getJSONArray("choices").length(),
+                "Выбор, ведущий в удалённую сцену, не удалён.");
+        assertEquals(Map.of("b", 1), linkIndex.incoming("c"), "Индекс не обновлён после удаления.");
+
+        deleted = linkIndex.deleteSubtree("b");
+        assertEquals(Set.of("b", "c", "d"), deleted, "Недостижимые сцены не удалены.");
+        assertEquals(1, scenarioData.length(), "В сценарии должна остаться только сцена 'start'.");
+    }
+
+    /**
+     * Тест на удаление поддерева с циклом: сцены цикла достижимы друг из друга,
+     * но не из оставшихся сцен, поэтому удаляются вместе с корнем.
+     */
+    @Test
+    public void testDeleteSubtreeWithCycle() {
+        linkIndex.addScene("x", scene("X", "y"));
+        linkIndex.addScene("y", scene("Y", "x", "start"));
+        linkIndex.addChoice("d", "to x", "x");
+
+        Set<String> deleted = linkIndex.deleteSubtree("c");
+
+        assertEquals(Set.of("c", "d", "x", "y"), deleted, "Цикл под удалённой сценой остался сиротой.");
+        assertTrue(scenarioData.has("start"), "Сцена 'start' не должна удаляться как потомок.");
+        assertTrue(linkIndex.incoming("start").isEmpty(), "Выбор из удалённой сцены в 'start' остался в индексе.");
+        assertEquals(0, scenarioData.getJSONObject("a").getJSONArray("choices").length(),
+                "Выбор, ведущий в удалённую сцену, не удалён.");
+    }
+
+    /**
+     * Тест на то, что цикл, в который можно попасть в обход удаляемой сцены, остаётся.
+     */
+    @Test
+    public void testDeleteSubtreeKeepsCycleReachableFromOutside() {
+        linkIndex.addScene("x", scene("X", "y"));
+        linkIndex.addScene("y", scene("Y", "x"));
+        linkIndex.addChoice("d", "to x", "x");
+        linkIndex.addChoice("start", "to y", "y");
+
+        Set<String> deleted = linkIndex.deleteSubtree("c");
+
+        assertEquals(Set.of("c", "d"), deleted, "Удалены сцены, достижимые из 'start'.");
+        assertEquals(Map.of("y", 1), linkIndex.incoming("x"), "Выбор из удалённой сцены остался в индексе.");
+    }
+
+    /**
+     * Тест на слияние сцен-дубликатов.
+     */
+    @Test
+    public void testMergeScenes() {
+        linkIndex.mergeScenes("a", "b");
+
+        assertFalse(scenarioData.has("b"), "Дубликат не удалён.");
+        assertEquals("a", scenarioData.getJSONObject("start").getJSONArray("choices")
+                .getJSONObject(1).getString("next"), "Выбор не переведён на основную сцену.");
+        assertEquals(Map.of("start", 2), linkIndex.incoming("a"), "Входящие выборы не объединены.");
+        assertEquals(Map.of("a", 1), linkIndex.incoming("c"), "Исходящие выборы дубликата остались в индексе.");
+    }
+
+    /**
+     * Тест на запрет переименования начальной сцены.
+     */
+    @Test
+    public void testRenameStartRejected() {
+        assertThrows(IllegalArgumentException.class, () -> linkIndex.renameScene("start", "intro"),
+                "Начальная сцена не должна переименовываться.");
+        assertTrue(scenarioData.has("start"), "Сцена 'start' пропала из сценария.");
+        assertFalse(scenarioData.has("intro"), "Сцена переименована, несмотря на ошибку.");
+    }
+
+    /**
+     * Тест на запрет слияния начальной сцены как дубликата с другой сценой.
+     */
+    @Test
+    public void testMergeStartAsDuplicateRejected() {
+        assertThrows(IllegalArgumentException.class, () -> linkIndex.mergeScenes("a", "start"),
+                "Начальная сцена не должна удаляться как дубликат.");
+        assertTrue(scenarioData.has("start"), "Сцена 'start' пропала из сценария.");
+        assertEquals(Map.of("start", 1), linkIndex.incoming("a"), "Индекс изменён, несмотря на ошибку.");
+
+        linkIndex.mergeScenes("start", "d"); // Слияние в начальную сцену допустимо
+        assertEquals(Map.of("c", 1), linkIndex.incoming("start"), "Выбор не переведён на сцену 'start'.");
+    }
+}
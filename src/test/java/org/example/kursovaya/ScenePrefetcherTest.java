@@ -0,0 +1,143 @@
+package org.example.kursovaya;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.*;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты для класса ScenePrefetcher.
+ */
+public class ScenePrefetcherTest {
+
+    private JSONObject scenarioData;
+
+    /**
+     * Подготовка тестового сценария перед каждым тестом:
+     * start -> a, b, c; a -> a1; b -> b1.
+     */
+    @BeforeEach
+    public void setUp() {
+        scenarioData = new JSONObject();
+        scenarioData.put("start", scene("Start", "a", "b", "c"));
+        scenarioData.put("a", scene("A", "a1"));
+        scenarioData.put("b", scene("B", "b1"));
+        scenarioData.put("c", scene("C"));
+        scenarioData.put("a1", scene("A1"));
+        scenarioData.put("b1", scene("B1"));
+    }
+
+    /**
+     * Создаёт сцену с выборами, ведущими в указанные сцены.
+     */
+    private JSONObject scene(String text, String... nextKeys) {
+        JSONArray choices = new JSONArray();
+        for (String next : nextKeys) {
+            choices.put(new JSONObject().put("option", "to " + next).put("next", next));
+        }
+        return new JSONObject().put("text", text).put("choices", choices);
+    }
+
+    /**
+     * Тест на порядок предзагрузки по убыванию вероятности пути.
+     */
+    @Test
+    public void testPlanOrdersByProbability() {
+        ScenePrefetcher prefetcher = new ScenePrefetcher(() -> scenarioData, 2);
+        ScenePrefetcher shallow = new ScenePrefetcher(() -> scenarioData, 1);
+        for (ScenePrefetcher p : List.of(prefetcher, shallow)) {
+            for (int i = 0; i < 3; i++) {
+                p.recordChoice("start", "b");
+            }
+            p.recordChoice("start", "c");
+        }
+        ScenePrefetcher.PreparedScene start = prefetcher.get("start");
+        prefetcher.get("b"); // Второй уровень планируется только по уже разобранным сценам
+
+        // b: 4/7, c: 2/7, a: 1/7; b1 наследует вероятность b
+        assertEquals(List.of("b", "b1", "c", "a"), prefetcher.plan("start", start),
+                "Сцены должны загружаться в порядке убывания вероятности пути.");
+        assertEquals(List.of("b", "c", "a"), shallow.plan("start", start),
+                "Глубина 1 должна ограничивать предзагрузку соседними сценами.");
+    }
+
+    /**
+     * Тест на отмену загрузки веток, в которые игрок не пошёл, и учёт попаданий и промахов.
+     */
+    @Test
+    public void testCancelsBranchesNotTaken() {
+        ScenePrefetcher prefetcher = new ScenePrefetcher(() -> scenarioData, 1);
+        ScenePrefetcher.PreparedScene start = prefetcher.get("start");
+        prefetcher.onSceneShown("start", start);
+
+        ScenePrefetcher.PreparedScene a = prefetcher.get("a");
+        assertEquals("A", a.getText(), "Предзагружена не та сцена.");
+        prefetcher.onSceneShown("a", a);
+
+        assertEquals(1, prefetcher.getHits(), "Переход в предзагруженную сцену не учтён как попадание.");
+        assertEquals(1, prefetcher.getMisses(), "Первая сцена должна загружаться при показе.");
+        assertEquals(2, prefetcher.getWasted(), "Загрузки веток 'b' и 'c' должны считаться напрасными.");
+
+        assertEquals("B", prefetcher.get("b").getText(), "Отменённая сцена не загружена заново.");
+        assertEquals(2, prefetcher.getMisses(), "Отменённая сцена должна загружаться при показе.");
+    }
+
+    /**
+     * Тест на сброс предзагрузки после изменения сценария.
+     */
+    @Test
+    public void testInvalidateCountsUnusedAsWasted() {
+        ScenePrefetcher prefetcher = new ScenePrefetcher(() -> scenarioData, 1);
+        prefetcher.onSceneShown("start", prefetcher.get("start"));
+        prefetcher.get("c");
+
+        new SceneLinkIndex(scenarioData).addChoice("start", "to d", "d");
+        prefetcher.invalidate();
+
+        assertEquals(2, prefetcher.getWasted(), "Непоказанные загрузки 'a' и 'b' должны считаться напрасными.");
+        assertEquals(List.of("a", "b", "c", "d"), prefetcher.get("start").getNextKeys(),
+                "После сброса сцена должна читаться из изменённого сценария.");
+        assertEquals(1.0 / 3, prefetcher.getHitRate(), 1e-9, "Неверная доля попаданий.");
+    }
+
+    /**
+     * Тест на загрузку второго уровня в обычной игре, без ручного разбора сцен.
+     */
+    @Test
+    public void testPrefetchesSecondLevelInBackground() {
+        ScenePrefetcher prefetcher = new ScenePrefetcher(() -> scenarioData, 2);
+        prefetcher.onSceneShown("start", prefetcher.get("start"));
+
+        // Переход в "a" ещё не показан, но её продолжение уже загружено
+        assertEquals("A", prefetcher.get("a").getText(), "Предзагружена не та сцена.");
+        assertEquals("A1", prefetcher.get("a1").getText(), "Предзагружена не та сцена второго уровня.");
+        assertEquals("B", prefetcher.get("b").getText(), "Предзагружена не та сцена.");
+        assertEquals("B1", prefetcher.get("b1").getText(), "Предзагружена не та сцена второго уровня.");
+
+        assertEquals(1, prefetcher.getMisses(), "Сцены второго уровня должны загружаться заранее.");
+        assertEquals(4, prefetcher.getHits(), "Переходы во второй уровень не учтены как попадания.");
+
+        ScenePrefetcher shallow = new ScenePrefetcher(() -> scenarioData, 1);
+        shallow.onSceneShown("start", shallow.get("start"));
+        shallow.get("a");
+        shallow.get("a1");
+        assertEquals(2, shallow.getMisses(), "При глубине 1 второй уровень не должен загружаться заранее.");
+    }
+
+    /**
+     * Тест на сохранение статистики выборов сценария после закрытия окна.
+     */
+    @Test
+    public void testChoiceStatsOutliveWindow() {
+        String name = "prefetch-stats-" + System.nanoTime();
+        ScenePrefetcher first = new ScenePrefetcher(() -> scenarioData, name);
+        for (int i = 0; i < 3; i++) {
+            first.recordChoice("start", "c");
+        }
+
+        ScenePrefetcher second = new ScenePrefetcher(() -> scenarioData, name);
+        assertEquals("c", second.plan("start", second.get("start")).get(0),
+                "Новое окно сценария должно учитывать выборы, сделанные в прежнем.");
+    }
+}
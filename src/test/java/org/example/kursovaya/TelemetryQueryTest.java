@@ -0,0 +1,163 @@
+package org.example.kursovaya;
+
+import org.junit.jupiter.api.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты для класса TelemetryQuery.
+ */
+public class TelemetryQueryTest {
+
+    private File directory; // Временная папка для сегментов
+
+    /**
+     * Создание временной папки перед каждым тестом.
+     */
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("telemetry").toFile();
+    }
+
+    /**
+     * Удаление сегментов после каждого теста.
+     */
+    @AfterEach
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Записывает прохождения сценария "quest":
+     * 1 - дошла до концовки "end", 2 - бросила в "b", 3 - бросила в "start" без выборов,
+     * 4 - вернулась из "a" в "start", снова пошла в "a" и бросила там.
+     */
+    private void recordQuest(TelemetryRecorder recorder) {
+        recorder.recordStart(1, "quest", "start");
+        recorder.record(1, "quest", "start", "a", 0);
+        recorder.record(1, "quest", "a", "end", 0);
+        recorder.recordEnding(1, "quest", "end");
+
+        recorder.recordStart(2, "quest", "start");
+        recorder.record(2, "quest", "start", "b", 1);
+
+        recorder.recordStart(3, "quest", "start");
+
+        recorder.record(4, "quest", "start", "a", 0);
+        recorder.record(4, "quest", "a", "start", 1);
+        recorder.record(4, "quest", "start", "a", 0);
+    }
+
+    /**
+     * Тест на подсчёт отсева и тепловой карты по одному сценарию.
+     */
+    @Test
+    public void testReportForScenario() throws IOException {
+        TelemetryRecorder recorder = new TelemetryRecorder(directory);
+        recordQuest(recorder);
+        recorder.recordStart(5, "other", "start");
+        recorder.record(5, "other", "start", "x", 0);
+        recorder.close();
+
+        TelemetryQuery.Report report = TelemetryQuery.run(directory, "quest");
+
+        assertEquals(10, report.getEvents(), "Неверное число событий сценария.");
+        assertEquals(4, report.getSessionCount(), "Неверное число сессий сценария.");
+        assertEquals(Map.of("quest / start", 4L, "quest / a", 2L, "quest / b", 1L, "quest / end", 1L),
+                report.getReached(), "Дошедшие до сцены должны считаться в разных сессиях.");
+        assertEquals(Map.of("quest / start", 1L, "quest / a", 1L, "quest / b", 1L), report.getAbandoned(),
+                "Неверный отсев по сценам.");
+        assertEquals(Map.of("quest / end", 1L), report.getCompleted(), "Концовка не должна считаться отсевом.");
+        assertArrayEquals(new long[]{3, 1}, report.getHeatmap().get("quest / start"), "Неверная тепловая карта сцены 'start'.");
+        assertArrayEquals(new long[]{1, 1}, report.getHeatmap().get("quest / a"), "Неверная тепловая карта сцены 'a'.");
+        assertEquals(2, report.getHeatmap().size(), "События начала и концовки не должны попадать в тепловую карту.");
+    }
+
+    /**
+     * Тест на анализ всех сценариев без отбора.
+     */
+    @Test
+    public void testReportForAllScenarios() throws IOException {
+        TelemetryRecorder recorder = new TelemetryRecorder(directory);
+        recordQuest(recorder);
+        recorder.recordStart(5, "other", "start");
+        recorder.record(5, "other", "start", "x", 0);
+        recorder.close();
+
+        TelemetryQuery.Report report = TelemetryQuery.run(directory, null);
+
+        assertEquals(12, report.getEvents(), "Неверное число событий.");
+        assertEquals(5, report.getSessionCount(), "Неверное число сессий.");
+        assertEquals(Long.valueOf(1), report.getAbandoned().get("other / x"), "Сессия другого сценария не учтена.");
+        assertEquals(Long.valueOf(1), report.getReached().get("other / start"), "Начало другого сценария не учтено.");
+    }
+
+    /**
+     * Тест на слияние мелких сегментов без изменения результата анализа.
+     */
+    @Test
+    public void testCompactKeepsReport() throws IOException, InterruptedException {
+        TelemetryRecorder first = new TelemetryRecorder(directory);
+        first.recordStart(1, "quest", "start");
+        first.record(1, "quest", "start", "a", 0);
+        first.close();
+        Thread.sleep(5); // Имена сегментов содержат время записи
+        TelemetryRecorder second = new TelemetryRecorder(directory);
+        second.record(1, "quest", "a", "end", 0);
+        second.recordEnding(1, "quest", "end");
+        second.recordStart(2, "quest", "start");
+        second.close();
+        assertEquals(2, directory.listFiles().length, "Каждая запись должна дать отдельный сегмент.");
+
+        assertEquals(2, TelemetryQuery.compact(directory), "Мелкие сегменты не слиты.");
+        assertEquals(1, directory.listFiles().length, "После слияния должен остаться один сегмент.");
+
+        TelemetryQuery.Report report = TelemetryQuery.run(directory, "quest");
+        assertEquals(5, report.getEvents(), "При слиянии потеряны события.");
+        assertEquals(Map.of("quest / end", 1L), report.getCompleted(), "Сессия, закончившаяся во втором сегменте, не учтена.");
+        assertEquals(Map.of("quest / start", 1L), report.getAbandoned(), "Неверный отсев после слияния.");
+        assertArrayEquals(new long[]{1}, report.getHeatmap().get("quest / a"), "Словари сегментов слиты неверно.");
+    }
+
+    /**
+     * Тест на счётчик разных сессий: точный для малых множеств, с малой погрешностью для больших,
+     * и слияние пересекающихся счётчиков без двойного счёта.
+     */
+    @Test
+    public void testSessionCounter() {
+        TelemetryQuery.SessionCounter small = new TelemetryQuery.SessionCounter();
+        for (int i = 0; i < TelemetryQuery.SessionCounter.SPARSE_LIMIT; i++) {
+            small.add(i);
+            small.add(i);
+        }
+        assertEquals(TelemetryQuery.SessionCounter.SPARSE_LIMIT, small.size(), "Малое множество должно считаться точно.");
+
+        TelemetryQuery.SessionCounter first = new TelemetryQuery.SessionCounter();
+        TelemetryQuery.SessionCounter second = new TelemetryQuery.SessionCounter();
+        for (long session = 0; session < 200_000; session++) {
+            long id = session * 0x9E3779B97F4A7C15L;
+            if (session < 120_000) {
+                first.add(id);
+            }
+            if (session >= 80_000) {
+                second.add(id);
+            }
+        }
+        assertEquals(120_000, first.size(), 120_000 * 0.05, "Оценка числа сессий слишком неточна.");
+
+        long merged = TelemetryQuery.SessionCounter.union(first, second).size();
+        assertEquals(200_000, merged, 200_000 * 0.05, "Пересекающиеся сессии посчитаны дважды при слиянии.");
+
+        TelemetryQuery.SessionCounter mixed = TelemetryQuery.SessionCounter.union(small, new TelemetryQuery.SessionCounter());
+        assertEquals(TelemetryQuery.SessionCounter.SPARSE_LIMIT, mixed.size(), "Слияние точных счётчиков потеряло точность.");
+    }
+}